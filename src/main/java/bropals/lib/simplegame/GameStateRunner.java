@@ -23,11 +23,28 @@
  **/
 package bropals.lib.simplegame;
 
+import bropals.lib.simplegame.io.AssetHandle;
 import bropals.lib.simplegame.io.AssetManager;
 import bropals.lib.simplegame.state.GameState;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
 
 /**
  * Continuously runs the update and render loop of a GameState object.
+ * <p>
+ * When a state is set, the assets it declares with 
+ * <code>getRequiredAssets()</code> are loaded in the background. If a 
+ * loading state has been given, it is shown until they have loaded; 
+ * otherwise the new state is entered right away and its assets load 
+ * lazily. Assets declared by the previous state that the new state does not
+ * declare are unloaded.
  * @author Kevin Prehn
  */
 public class GameStateRunner {
@@ -37,6 +54,12 @@ public class GameStateRunner {
     private GameWindow currentWindow;
     private long startTime, diff;
     private int millisBetweenFrames;
+    private GameState loadingState = null;
+    private Set<AssetHandle<?>> loadingManifest = Collections.emptySet();
+    private Set<AssetHandle<?>> currentManifest = Collections.emptySet();
+    private GameState pendingState = null;
+    private boolean unloadUnusedAssets = true;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
     
     /**
      * Creates a GameStateRunner with a AWTGameWindow.
@@ -75,19 +98,189 @@ public class GameStateRunner {
      * Sets the given GameState tot be the current state. The state
      * that was there before is removed after onExit() is called in it.
      * onEnter is called in the new GameState.
+     * <p>
+     * If the new state declares assets that are not loaded yet and there
+     * is a loading state, the loading state is entered instead, and the new
+     * state is entered on the game loop's thread once its assets have
+     * finished loading. Without a loading state, the new state is entered
+     * right away and its assets keep loading in the background; an 
+     * <code>AssetHandle</code> that is used before it has loaded waits for
+     * its load to finish.
      * @param state The new GameState
      */
-    public void setState(GameState state) {
-        if (currentState != null)
-            currentState.onExit();
+    public void setState(final GameState state) {
+        prepareState(state);
+        final Set<AssetHandle<?>> manifest = new LinkedHashSet<>(state.getRequiredAssets());
+        boolean loaded = true;
+        for (AssetHandle<?> handle : manifest) {
+            if (!handle.isLoaded()) {
+                loaded = false;
+                break;
+            }
+        }
+        if (loaded || loadingState == null || loadingState == state) {
+            if (!loaded) {
+                preloadState(state);
+            }
+            pendingState = null;
+            enterState(state, manifest);
+            return;
+        }
         
-        currentState = state;
+        pendingState = state;
+        if (currentState != loadingState) {
+            enterState(loadingState, manifest);
+        }
+        preloadState(state).thenRun(new Runnable() {
+            @Override
+            public void run() {
+                invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        // a newer call to setState may have replaced this one
+                        if (pendingState == state) {
+                            pendingState = null;
+                            enterState(state, manifest);
+                        }
+                    }
+                });
+            }
+        });
+    }
+    
+    private void prepareState(GameState state) {
         state.setWindow(currentWindow);
         state.setAssetManager(assetManager);
         state.setGameStateRunner(this);
+    }
+    
+    /**
+     * Exits the current state and enters the given one, then unloads the
+     * assets that only the old state declared.
+     * @param state the state to enter
+     * @param keep the assets that must stay loaded, besides the ones the
+     * loading state declares
+     */
+    private void enterState(GameState state, Set<AssetHandle<?>> keep) {
+        if (currentState != null)
+            currentState.onExit();
+        
+        if (unloadUnusedAssets) {
+            for (AssetHandle<?> handle : currentManifest) {
+                if (!keep.contains(handle) && !loadingManifest.contains(handle)) {
+                    handle.unload();
+                }
+            }
+        }
+        currentManifest = keep;
+        currentState = state;
         state.onEnter();
     }
     
+    /**
+     * Sets the state that is shown while the assets of a new state are 
+     * loading. Its own assets are loaded right away and are never unloaded
+     * by a state change.
+     * @param loadingState the loading state, or <code>null</code> to enter
+     * new states right away and let their assets load lazily.
+     */
+    public void setLoadingState(GameState loadingState) {
+        this.loadingState = loadingState;
+        if (loadingState == null) {
+            loadingManifest = Collections.emptySet();
+            return;
+        }
+        prepareState(loadingState);
+        loadingManifest = new LinkedHashSet<>(loadingState.getRequiredAssets());
+        for (AssetHandle<?> handle : loadingManifest) {
+            handle.get();
+        }
+    }
+    
+    /**
+     * Gets the state that is shown while the assets of a new state are 
+     * loading.
+     * @return the loading state, or <code>null</code> if there is none.
+     */
+    public GameState getLoadingState() {
+        return loadingState;
+    }
+    
+    /**
+     * Returns <code>true</code> if a state is waiting for its assets to load
+     * before it is entered.
+     * @return if a state change is waiting on assets.
+     */
+    public boolean isLoadingState() {
+        return pendingState != null;
+    }
+    
+    /**
+     * Sets whether or not assets declared by the previous state, but not
+     * the new one, are unloaded when the state changes. This is on by
+     * default.
+     * @param unloadUnusedAssets whether or not to unload unused assets.
+     */
+    public void setUnloadUnusedAssets(boolean unloadUnusedAssets) {
+        this.unloadUnusedAssets = unloadUnusedAssets;
+    }
+    
+    /**
+     * Runs a task on the game loop's thread before the next update. Safe
+     * to call from any thread.
+     * @param task the task to run.
+     */
+    public void invokeLater(Runnable task) {
+        tasks.add(task);
+    }
+    
+    /**
+     * Gets an executor that runs tasks on the game loop's thread before the
+     * next update, such as the callbacks of background work.
+     * @return an executor that calls <code>invokeLater</code>.
+     */
+    public Executor getGameThreadExecutor() {
+        return new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                invokeLater(task);
+            }
+        };
+    }
+    
+    /**
+     * Runs the tasks given to <code>invokeLater</code>.
+     */
+    protected void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+    
+    /**
+     * Starts loading the assets that a GameState needs in the background, 
+     * so that they are ready by the time it is set. The current state keeps
+     * running while they load.
+     * @param state the GameState that will be set next
+     * @return a future that completes once all of the state's assets have 
+     * finished loading, whether or not they loaded successfully.
+     */
+    public CompletableFuture<Void> preloadState(GameState state) {
+        state.setAssetManager(assetManager);
+        List<CompletableFuture<?>> loads = new ArrayList<>();
+        for (AssetHandle<?> handle : state.getRequiredAssets()) {
+            loads.add(handle.prefetch());
+        }
+        return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[loads.size()]))
+                .handle(new BiFunction<Void, Throwable, Void>() {
+                    @Override
+                    public Void apply(Void result, Throwable failure) {
+                        return null;
+                    }
+                });
+    }
+    
     /**
      * So we can extend and change how we render in other GameStates.
      */
@@ -109,6 +302,7 @@ public class GameStateRunner {
             }
             
             startTime = System.currentTimeMillis();
+            runTasks();
             GameState runState = currentState; // in case the state is changed
                                               // in the middle of the loop
             currentWindow.flushInput();
@@ -31,10 +31,13 @@ import java.awt.GraphicsDevice;
 import java.awt.Point;
 import java.awt.image.BufferedImage;
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import org.lwjgl.BufferUtils;
 import org.lwjgl.glfw.*;
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL11.GL_COLOR_BUFFER_BIT;
 import static org.lwjgl.opengl.GL11.GL_FALSE;
+import static org.lwjgl.opengl.GL11.GL_NEAREST;
 import static org.lwjgl.opengl.GL11.GL_TRUE;
 import static org.lwjgl.opengl.GL11.glClear;
 import static org.lwjgl.opengl.GL11.glClearColor;
@@ -47,6 +50,11 @@ import static org.lwjgl.system.MemoryUtil.NULL;
  * 
  * The LWJGL Game window implementation. Instead of the given render object
  * being a Graphics object, it is a LWJGLContext object.
+ * <p>
+ * The game can be rendered at a fixed internal resolution that is smaller
+ * than the window, then upscaled to the window in one pass. This reduces the
+ * number of pixels that are shaded each frame, which matters most on high-DPI
+ * displays.
  * 
  * @author Jonathon
  */
@@ -64,6 +72,15 @@ public class LWJGLGameWindow implements GameWindow {
     private GameStateRunner runner;
     private boolean requestingToClose = false;
     private LWJGLContext context;
+    private ScreenResolution internalResolution = null;
+    private int upscaleFilter = GL_NEAREST;
+    private final IntBuffer framebufferWidth = BufferUtils.createIntBuffer(1);
+    private final IntBuffer framebufferHeight = BufferUtils.createIntBuffer(1);
+    
+    /**
+     * The key of the render target used for the internal resolution.
+     */
+    private static final String INTERNAL_TARGET = "LWJGLGameWindow.internal";
     
     /**
      * Creates a new LWJGL Game window with the specified properties.
@@ -225,11 +242,82 @@ public class LWJGLGameWindow implements GameWindow {
 
     @Override
     public void renderState(GameState state) {
-        glClear(GL_COLOR_BUFFER_BIT);
-        state.render(context);
+        if (internalResolution != null) {
+            context.bindRenderTarget(INTERNAL_TARGET);
+            glClear(GL_COLOR_BUFFER_BIT);
+            state.render(context);
+            context.unbindRenderTarget();
+            context.blitRenderTargetToWindow(INTERNAL_TARGET, upscaleFilter);
+        } else {
+            glClear(GL_COLOR_BUFFER_BIT);
+            state.render(context);
+        }
         glFlush();
         glfwSwapBuffers(window);
     }
+    
+    /**
+     * Sets a fixed resolution to render the game at. Each frame is rendered
+     * into an offscreen render target of this size, then stretched over the
+     * whole window. Pass <code>null</code> to render straight to the window.
+     * @param internalResolution the resolution to render at, or 
+     * <code>null</code> to use the window's resolution.
+     */
+    public void setInternalResolution(ScreenResolution internalResolution) {
+        if (internalResolution == null) {
+            if (this.internalResolution != null) {
+                context.deleteRenderTarget(INTERNAL_TARGET);
+            }
+        } else if (this.internalResolution == null) {
+            context.createRenderTarget(INTERNAL_TARGET, 
+                    internalResolution.getScreenWidth(), 
+                    internalResolution.getScreenHeight());
+        } else {
+            context.resizeRenderTarget(INTERNAL_TARGET, 
+                    internalResolution.getScreenWidth(), 
+                    internalResolution.getScreenHeight());
+        }
+        this.internalResolution = internalResolution;
+    }
+    
+    /**
+     * Gets the fixed resolution the game is rendered at.
+     * @return the internal resolution, or <code>null</code> if the game
+     * is rendered at the window's resolution.
+     */
+    public ScreenResolution getInternalResolution() {
+        return internalResolution;
+    }
+    
+    /**
+     * Sets the filter used to stretch the internal resolution over the
+     * window. The default is <code>GL_NEAREST</code>, which keeps pixel art
+     * sharp; <code>GL_LINEAR</code> smooths the result.
+     * @param upscaleFilter the filter to upscale with.
+     */
+    public void setUpscaleFilter(int upscaleFilter) {
+        this.upscaleFilter = upscaleFilter;
+    }
+    
+    /**
+     * Gets the width of the window's drawing surface in pixels. This is
+     * larger than the screen width on high-DPI displays.
+     * @return the width of the window's framebuffer.
+     */
+    public int getFramebufferWidth() {
+        glfwGetFramebufferSize(window, framebufferWidth, framebufferHeight);
+        return framebufferWidth.get(0);
+    }
+    
+    /**
+     * Gets the height of the window's drawing surface in pixels. This is
+     * larger than the screen height on high-DPI displays.
+     * @return the height of the window's framebuffer.
+     */
+    public int getFramebufferHeight() {
+        glfwGetFramebufferSize(window, framebufferWidth, framebufferHeight);
+        return framebufferHeight.get(0);
+    }
 
     @Override
     public Point getMousePosition() {
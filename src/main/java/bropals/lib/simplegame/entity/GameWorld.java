@@ -25,8 +25,12 @@ package bropals.lib.simplegame.entity;
 
 import bropals.lib.simplegame.state.GameState;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * A generic GameWorld that holds objects of type {@link bropals.lib.simplegame.entity.BaseEntity}.
@@ -59,6 +63,7 @@ public class GameWorld<T extends BaseEntity> {
             // here or if it's been removed
             if (entities.get(i).getParent() != this) {
                 entities.remove(i);
+                i--;
                 continue;
             }
             entities.get(i).update(mills);
@@ -84,6 +89,52 @@ public class GameWorld<T extends BaseEntity> {
         }
     }
     
+    /**
+     * Adds many entities at once. Unlike <code>addEntity</code>, this does
+     * not search the list for each entity, so it is meant for entities that
+     * are not in any world yet, such as ones that were just loaded. Entities
+     * whose parent is already this GameWorld are skipped.
+     * @param added The entities being added.
+     */
+    public void addEntities(Collection<? extends T> added) {
+        if (entities instanceof ArrayList) {
+            ((ArrayList<T>)entities).ensureCapacity(entities.size() + added.size());
+        }
+        for (T entity : added) {
+            if (entity.getParent() != this) {
+                entities.add(entity);
+                entity.setParent(this);
+            }
+        }
+    }
+    
+    /**
+     * Removes many entities at once with a single pass over the list of 
+     * entities. Only entities whose parent is this GameWorld are removed,
+     * and their parent is set to null. This should not be called from an
+     * entity's update, since the list changes right away.
+     * @param removed The entities being removed.
+     */
+    public void removeEntities(Collection<? extends T> removed) {
+        final Set<BaseEntity> removing = Collections.newSetFromMap(
+                new IdentityHashMap<BaseEntity, Boolean>());
+        for (T entity : removed) {
+            if (entity.getParent() == this) {
+                removing.add(entity);
+                entity.removeParent();
+            }
+        }
+        if (removing.isEmpty()) {
+            return;
+        }
+        entities.removeIf(new Predicate<T>() {
+            @Override
+            public boolean test(T entity) {
+                return removing.contains(entity);
+            }
+        });
+    }
+    
     /**
      * Get the game state containing this game world.
      * @return The game state containing this game world.
@@ -26,6 +26,7 @@ package bropals.lib.simplegame.entity.block;
 
 import bropals.lib.simplegame.animation.Animation;
 import bropals.lib.simplegame.entity.GameWorld;
+import bropals.lib.simplegame.util.StaticLayer;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
@@ -39,7 +40,9 @@ import java.awt.image.BufferedImage;
  * 
  * Setting tileImage to true makes it repeat the given image for the width 
  * and height of the entity. It doesn't cut off the final row and column of 
- * the image to make it fit exactly.
+ * the image to make it fit exactly. The tiled image is drawn once into a
+ * cached layer and drawn from the cache afterwards, so the block is not
+ * re-tiled every frame.
  * @author Kevin Prehn
  */
 public class TexturedBlock extends BlockEntity {
@@ -47,6 +50,16 @@ public class TexturedBlock extends BlockEntity {
     private Animation animation;
     private BufferedImage image;
     private boolean tileImage;
+    private final StaticLayer tileLayer = new StaticLayer(0, 0) {
+        @Override
+        protected void paintLayer(Graphics2D g) {
+            for (int x=0; x<getWidth(); x+=image.getWidth()) {
+                for (int y=0; y<getHeight(); y+=image.getHeight()) {
+                    g.drawImage(image, x, y, null);
+                }
+            }
+        }
+    };
     
     /**
      * Create a TexturedBlock object, a subclass of BlockEntity. The 
@@ -80,6 +93,7 @@ public class TexturedBlock extends BlockEntity {
     public void setImage(BufferedImage bi) {
         this.image = bi;
         this.tileImage = false;
+        tileLayer.flush();
     }
     
     /**
@@ -89,6 +103,9 @@ public class TexturedBlock extends BlockEntity {
      */
     public void setTileImage(boolean tile) {
         this.tileImage = tile;
+        if (!tile) {
+            tileLayer.flush();
+        }
     }
     
     @Override
@@ -106,12 +123,12 @@ public class TexturedBlock extends BlockEntity {
             g2.drawImage(animation.getCurrentImage(), (int)getX(), (int)getY(), null);
         } else if (image != null) {
             if (tileImage) {
-                for (int x=0; x<getWidth(); x+=image.getWidth()) {
-                    for (int y=0; y<getHeight(); y+=image.getHeight()) {
-                        g2.drawImage(image, (int)(getX() + x), 
-                                (int)(getY() + y), null);
-                    }
-                }
+                // cover the whole block without cutting off the last tiles
+                int columns = (int)Math.ceil(getWidth() / image.getWidth());
+                int rows = (int)Math.ceil(getHeight() / image.getHeight());
+                tileLayer.setSize(columns * image.getWidth(), 
+                        rows * image.getHeight());
+                tileLayer.render(g2, (int)getX(), (int)getY());
             } else {
                 g2.drawImage(image, (int)getX(), (int)getY(), null);
             }
@@ -0,0 +1,74 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.entity.chunk;
+
+import bropals.lib.simplegame.entity.BaseEntity;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes and reads the entities of a chunked world. 
+ * <p>
+ * <code>read</code> is called on a background thread by a 
+ * {@link ChunkStreamer}, so it should make the entity with a 
+ * <code>null</code> parent and not touch the GameWorld. The streamer adds
+ * the entity to the world on the game thread.
+ * 
+ * @author Kevin Prehn
+ * @param <T> the type of entity in the world.
+ */
+public interface ChunkCodec<T extends BaseEntity> {
+    
+    /**
+     * Gets the x position used to decide which chunk an entity is in.
+     * @param entity the entity.
+     * @return the x position of the entity in world coordinates.
+     */
+    public float getX(T entity);
+    
+    /**
+     * Gets the y position used to decide which chunk an entity is in.
+     * @param entity the entity.
+     * @return the y position of the entity in world coordinates.
+     */
+    public float getY(T entity);
+    
+    /**
+     * Writes an entity.
+     * @param entity the entity to write.
+     * @param out where to write it.
+     * @throws IOException if the entity could not be written.
+     */
+    public void write(T entity, DataOutput out) throws IOException;
+    
+    /**
+     * Reads an entity that was written by <code>write</code>.
+     * @param in where to read it from.
+     * @return the entity, with no parent.
+     * @throws IOException if the entity could not be read.
+     */
+    public T read(DataInput in) throws IOException;
+}
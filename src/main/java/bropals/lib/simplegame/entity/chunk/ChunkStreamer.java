@@ -0,0 +1,367 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.entity.chunk;
+
+import bropals.lib.simplegame.entity.BaseEntity;
+import bropals.lib.simplegame.entity.GameWorld;
+import bropals.lib.simplegame.logger.ErrorLogger;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads the chunks of a {@link ChunkedWorldFile} into a GameWorld as a focus
+ * point, such as the camera or the player, moves around, and removes the
+ * chunks that are left behind.
+ * <p>
+ * Chunks are read and decoded on a background thread. Call 
+ * <code>update</code> from the game thread every frame; it asks for the 
+ * chunks near the focus, adds the entities of chunks that finished loading
+ * to the world, and unloads chunks that are too far away.
+ * <p>
+ * Chunks are loaded within the load radius but only unloaded when they are
+ * outside of the unload radius, which is larger, so moving back and forth
+ * over a chunk border does not load and unload the same chunks every frame.
+ * Radii are measured in chunks, so a load radius of 1 keeps the 3 by 3 
+ * square of chunks around the focus loaded.
+ * <p>
+ * Unloading a chunk removes the entities that were loaded with it, even if 
+ * they moved into another chunk. Override <code>chunkUnloaded</code> to save 
+ * them first.
+ * 
+ * @author Kevin Prehn
+ * @param <T> the type of entity in the world.
+ */
+public class ChunkStreamer<T extends BaseEntity> {
+    
+    private final GameWorld<T> world;
+    private final ChunkedWorldFile file;
+    private final ChunkCodec<T> codec;
+    private final ExecutorService executor;
+    private final Map<Long, List<T>> loaded = new HashMap<>();
+    private final Map<Long, Long> pending = new HashMap<>();
+    private final Set<Long> failed = new HashSet<>();
+    private final Queue<LoadedChunk> finished = new ConcurrentLinkedQueue<>();
+    private volatile boolean stopped = false;
+    private int loadRadius;
+    private int unloadRadius;
+    
+    private int chunksLoaded = 0;
+    private int chunksUnloaded = 0;
+    private long totalLatencyNanos = 0;
+    private long maxLatencyNanos = 0;
+    private long totalDecodeNanos = 0;
+    
+    /**
+     * Makes a streamer that loads chunks within 1 chunk of the focus and 
+     * unloads them when they are more than 2 chunks away.
+     * @param world the world to add the entities to.
+     * @param file the file to load the chunks from.
+     * @param codec reads the entities.
+     */
+    public ChunkStreamer(GameWorld<T> world, ChunkedWorldFile file, ChunkCodec<T> codec) {
+        this(world, file, codec, 1, 2);
+    }
+    
+    /**
+     * Makes a streamer with the given radii.
+     * @param world the world to add the entities to.
+     * @param file the file to load the chunks from.
+     * @param codec reads the entities.
+     * @param loadRadius how many chunks away from the focus are loaded.
+     * @param unloadRadius how many chunks away from the focus a chunk must
+     * be before it is unloaded. It must be at least the load radius.
+     */
+    public ChunkStreamer(GameWorld<T> world, ChunkedWorldFile file, 
+            ChunkCodec<T> codec, int loadRadius, int unloadRadius) {
+        this.world = world;
+        this.file = file;
+        this.codec = codec;
+        setRadius(loadRadius, unloadRadius);
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ChunkStreamer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    
+    /**
+     * Sets how far from the focus chunks are loaded and unloaded.
+     * @param loadRadius how many chunks away from the focus are loaded.
+     * @param unloadRadius how many chunks away from the focus a chunk must
+     * be before it is unloaded. It must be at least the load radius.
+     */
+    public final void setRadius(int loadRadius, int unloadRadius) {
+        if (loadRadius < 0 || unloadRadius < loadRadius) {
+            throw new IllegalArgumentException("The unload radius must be at "
+                    + "least the load radius, which must not be negative");
+        }
+        this.loadRadius = loadRadius;
+        this.unloadRadius = unloadRadius;
+    }
+    
+    /**
+     * Gets how many chunks away from the focus are loaded.
+     * @return the load radius.
+     */
+    public int getLoadRadius() {
+        return loadRadius;
+    }
+    
+    /**
+     * Gets how many chunks away from the focus a chunk must be before it is
+     * unloaded.
+     * @return the unload radius.
+     */
+    public int getUnloadRadius() {
+        return unloadRadius;
+    }
+    
+    /**
+     * Loads and unloads chunks around the focus. This must be called from 
+     * the game thread.
+     * @param focusX the x position of the focus in world coordinates.
+     * @param focusY the y position of the focus in world coordinates.
+     */
+    public void update(float focusX, float focusY) {
+        int fx = ChunkedWorldFile.toChunk(focusX, file.getChunkSize());
+        int fy = ChunkedWorldFile.toChunk(focusY, file.getChunkSize());
+        
+        LoadedChunk chunk;
+        while ((chunk = finished.poll()) != null) {
+            Long requested = pending.remove(chunk.key);
+            if (requested == null) {
+                continue;
+            }
+            if (chunk.entities == null) {
+                // don't keep asking for a chunk that can't be read
+                failed.add(chunk.key);
+                continue;
+            }
+            if (distance(chunk.key, fx, fy) > unloadRadius) {
+                // the focus moved away while the chunk was loading
+                continue;
+            }
+            world.addEntities(chunk.entities);
+            loaded.put(chunk.key, chunk.entities);
+            long latency = System.nanoTime() - requested;
+            chunksLoaded++;
+            totalLatencyNanos += latency;
+            totalDecodeNanos += chunk.decodeNanos;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+        }
+        
+        Iterator<Map.Entry<Long, List<T>>> it = loaded.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, List<T>> entry = it.next();
+            long key = entry.getKey();
+            if (distance(key, fx, fy) > unloadRadius) {
+                it.remove();
+                removeChunk(key, entry.getValue());
+                chunksUnloaded++;
+            }
+        }
+        
+        for (int cy=fy-loadRadius; cy<=fy+loadRadius; cy++) {
+            for (int cx=fx-loadRadius; cx<=fx+loadRadius; cx++) {
+                long key = ChunkedWorldFile.key(cx, cy);
+                if (file.hasChunk(cx, cy) && !loaded.containsKey(key) 
+                        && !pending.containsKey(key) && !failed.contains(key)) {
+                    requestChunk(key);
+                }
+            }
+        }
+    }
+    
+    private void requestChunk(final long key) {
+        pending.put(key, System.nanoTime());
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (stopped) {
+                    return;
+                }
+                long start = System.nanoTime();
+                List<T> entities = null;
+                try {
+                    entities = file.readChunk(ChunkedWorldFile.chunkX(key), 
+                            ChunkedWorldFile.chunkY(key), codec);
+                } catch(IOException | RuntimeException e) {
+                    ErrorLogger.println("Unable to load chunk (" 
+                            + ChunkedWorldFile.chunkX(key) + ", " 
+                            + ChunkedWorldFile.chunkY(key) + "): " + e);
+                }
+                finished.add(new LoadedChunk(key, entities, System.nanoTime() - start));
+            }
+        });
+    }
+    
+    private void removeChunk(long key, List<T> entities) {
+        chunkUnloaded(ChunkedWorldFile.chunkX(key), ChunkedWorldFile.chunkY(key), entities);
+        world.removeEntities(entities);
+    }
+    
+    private int distance(long key, int fx, int fy) {
+        return Math.max(Math.abs(ChunkedWorldFile.chunkX(key) - fx), 
+                Math.abs(ChunkedWorldFile.chunkY(key) - fy));
+    }
+    
+    /**
+     * Called on the game thread just before the entities of a chunk are
+     * removed from the world. Does nothing by default.
+     * @param cx the x index of the chunk.
+     * @param cy the y index of the chunk.
+     * @param entities the entities that were loaded with the chunk.
+     */
+    protected void chunkUnloaded(int cx, int cy, List<T> entities) {
+    }
+    
+    /**
+     * Checks if a chunk's entities are in the world.
+     * @param cx the x index of the chunk.
+     * @param cy the y index of the chunk.
+     * @return <code>true</code> if the chunk is loaded.
+     */
+    public boolean isLoaded(int cx, int cy) {
+        return loaded.containsKey(ChunkedWorldFile.key(cx, cy));
+    }
+    
+    /**
+     * Gets the number of chunks whose entities are in the world.
+     * @return the number of loaded chunks.
+     */
+    public int getLoadedChunkCount() {
+        return loaded.size();
+    }
+    
+    /**
+     * Gets the number of chunks that are being loaded.
+     * @return the number of chunks waiting to be added to the world.
+     */
+    public int getPendingChunkCount() {
+        return pending.size();
+    }
+    
+    /**
+     * Gets the number of chunks that have been added to the world since the
+     * metrics were last reset.
+     * @return the number of chunks loaded.
+     */
+    public int getChunksLoaded() {
+        return chunksLoaded;
+    }
+    
+    /**
+     * Gets the number of chunks that have been removed from the world since
+     * the metrics were last reset.
+     * @return the number of chunks unloaded.
+     */
+    public int getChunksUnloaded() {
+        return chunksUnloaded;
+    }
+    
+    /**
+     * Gets the average time from when a chunk was asked for to when it was
+     * added to the world.
+     * @return the average latency in milliseconds.
+     */
+    public float getAverageLoadLatency() {
+        return chunksLoaded == 0 ? 0 : totalLatencyNanos / (chunksLoaded * 1000000f);
+    }
+    
+    /**
+     * Gets the longest time from when a chunk was asked for to when it was
+     * added to the world.
+     * @return the longest latency in milliseconds.
+     */
+    public float getMaxLoadLatency() {
+        return maxLatencyNanos / 1000000f;
+    }
+    
+    /**
+     * Gets the average time spent reading and decoding a chunk on the
+     * background thread.
+     * @return the average decode time in milliseconds.
+     */
+    public float getAverageDecodeTime() {
+        return chunksLoaded == 0 ? 0 : totalDecodeNanos / (chunksLoaded * 1000000f);
+    }
+    
+    /**
+     * Resets the load counts and latencies.
+     */
+    public void resetMetrics() {
+        chunksLoaded = 0;
+        chunksUnloaded = 0;
+        totalLatencyNanos = 0;
+        maxLatencyNanos = 0;
+        totalDecodeNanos = 0;
+    }
+    
+    /**
+     * Removes every loaded chunk from the world and stops the background
+     * thread. The file is not closed.
+     */
+    public void shutdown() {
+        // an interrupt would close the file if it stopped a read, so a
+        // read that is running is left to finish and its chunk is dropped
+        stopped = true;
+        executor.shutdown();
+        for (Map.Entry<Long, List<T>> entry : loaded.entrySet()) {
+            removeChunk(entry.getKey(), entry.getValue());
+        }
+        loaded.clear();
+        pending.clear();
+        finished.clear();
+    }
+    
+    /**
+     * A chunk that was read on the background thread.
+     */
+    private class LoadedChunk {
+        
+        private final long key;
+        private final List<T> entities;
+        private final long decodeNanos;
+
+        LoadedChunk(long key, List<T> entities, long decodeNanos) {
+            this.key = key;
+            this.entities = entities;
+            this.decodeNanos = decodeNanos;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.entity.chunk;
+
+import bropals.lib.simplegame.entity.BaseEntity;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A world file written by a {@link ChunkedWorldWriter}, which can read the
+ * entities of one chunk without reading the rest of the file.
+ * <p>
+ * The file starts with the magic number <code>BPCW</code>, the format
+ * version, the chunk size and the number of chunks. Next is an index with
+ * the x, y, offset, length and entity count of each chunk, followed by the
+ * entities of each chunk. Only the index is kept in memory. Chunks can be 
+ * read from more than one thread at once.
+ * 
+ * @author Kevin Prehn
+ */
+public class ChunkedWorldFile implements Closeable {
+    
+    static final int MAGIC = 0x42504357; // BPCW
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int INDEX_ENTRY_SIZE = 24;
+    
+    private final FileChannel channel;
+    private final float chunkSize;
+    private final Map<Long, long[]> index = new HashMap<>();
+    
+    /**
+     * Opens a chunked world file and reads its index.
+     * @param file the file to open.
+     * @throws IOException if the file could not be read or is not a 
+     * chunked world file.
+     */
+    public ChunkedWorldFile(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = readAt(0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a chunked world file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported chunked world version " + version);
+            }
+            chunkSize = header.getFloat();
+            int count = header.getInt();
+            ByteBuffer entries = readAt(HEADER_SIZE, count * INDEX_ENTRY_SIZE);
+            for (int i=0; i<count; i++) {
+                int cx = entries.getInt();
+                int cy = entries.getInt();
+                long offset = entries.getLong();
+                int length = entries.getInt();
+                int entityCount = entries.getInt();
+                index.put(key(cx, cy), new long[] { offset, length, entityCount });
+            }
+        } catch(IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    private ByteBuffer readAt(long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+    
+    /**
+     * Gets the width and height of a chunk in world coordinates.
+     * @return the chunk size.
+     */
+    public float getChunkSize() {
+        return chunkSize;
+    }
+    
+    /**
+     * Gets the number of chunks in the file.
+     * @return the number of chunks.
+     */
+    public int getChunkCount() {
+        return index.size();
+    }
+    
+    /**
+     * Checks if the file has any entities in a chunk.
+     * @param cx the x index of the chunk.
+     * @param cy the y index of the chunk.
+     * @return <code>true</code> if the chunk is in the file.
+     */
+    public boolean hasChunk(int cx, int cy) {
+        return index.containsKey(key(cx, cy));
+    }
+    
+    /**
+     * Gets the number of entities in a chunk.
+     * @param cx the x index of the chunk.
+     * @param cy the y index of the chunk.
+     * @return the number of entities, or 0 if the chunk is not in the file.
+     */
+    public int getEntityCount(int cx, int cy) {
+        long[] entry = index.get(key(cx, cy));
+        return entry == null ? 0 : (int)entry[2];
+    }
+    
+    /**
+     * Reads the entities of a chunk. None of them will have a parent.
+     * @param <T> the type of entity in the world.
+     * @param cx the x index of the chunk.
+     * @param cy the y index of the chunk.
+     * @param codec reads the entities.
+     * @return the entities in the chunk, which is empty if the chunk is not
+     * in the file.
+     * @throws IOException if the chunk could not be read.
+     */
+    public <T extends BaseEntity> List<T> readChunk(int cx, int cy, 
+            ChunkCodec<T> codec) throws IOException {
+        long[] entry = index.get(key(cx, cy));
+        if (entry == null) {
+            return new ArrayList<>(0);
+        }
+        ByteBuffer data = readAt(entry[0], (int)entry[1]);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                data.array(), 0, data.limit()));
+        List<T> entities = new ArrayList<>((int)entry[2]);
+        for (int i=0; i<entry[2]; i++) {
+            entities.add(codec.read(in));
+        }
+        return entities;
+    }
+
+    /**
+     * Closes the file.
+     * @throws IOException if the file could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+    
+    /**
+     * Gets the index of the chunk a world coordinate is in.
+     * @param position the world coordinate.
+     * @param chunkSize the size of a chunk.
+     * @return the chunk index.
+     */
+    static int toChunk(float position, float chunkSize) {
+        return (int)Math.floor(position / chunkSize);
+    }
+    
+    static long key(int cx, int cy) {
+        return ((long)cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+    
+    static int chunkX(long key) {
+        return (int)(key >> 32);
+    }
+    
+    static int chunkY(long key) {
+        return (int)key;
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.entity.chunk;
+
+import bropals.lib.simplegame.entity.BaseEntity;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sorts entities into fixed-size square chunks and writes them as a file 
+ * that a {@link ChunkedWorldFile} can read one chunk at a time.
+ * 
+ * @author Kevin Prehn
+ * @param <T> the type of entity in the world.
+ */
+public class ChunkedWorldWriter<T extends BaseEntity> {
+    
+    private final ChunkCodec<T> codec;
+    private final float chunkSize;
+    private final Map<Long, List<T>> chunks = new TreeMap<>();
+    
+    /**
+     * Makes a writer for a world with the given chunk size.
+     * @param codec writes the entities and says where they are.
+     * @param chunkSize the width and height of a chunk in world coordinates.
+     */
+    public ChunkedWorldWriter(ChunkCodec<T> codec, float chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunk size must be positive");
+        }
+        this.codec = codec;
+        this.chunkSize = chunkSize;
+    }
+    
+    /**
+     * Adds an entity to the chunk its position is in.
+     * @param entity the entity to add.
+     */
+    public void add(T entity) {
+        int cx = ChunkedWorldFile.toChunk(codec.getX(entity), chunkSize);
+        int cy = ChunkedWorldFile.toChunk(codec.getY(entity), chunkSize);
+        Long key = ChunkedWorldFile.key(cx, cy);
+        List<T> list = chunks.get(key);
+        if (list == null) {
+            list = new ArrayList<>();
+            chunks.put(key, list);
+        }
+        list.add(entity);
+    }
+    
+    /**
+     * Adds every entity in a list.
+     * @param entities the entities to add.
+     */
+    public void addAll(List<? extends T> entities) {
+        for (T entity : entities) {
+            add(entity);
+        }
+    }
+    
+    /**
+     * Gets the number of chunks that have entities in them.
+     * @return the number of chunks.
+     */
+    public int getChunkCount() {
+        return chunks.size();
+    }
+    
+    /**
+     * Writes the chunks to a file, replacing it if it exists.
+     * @param file the file to write.
+     * @throws IOException if the file could not be written.
+     */
+    public void write(File file) throws IOException {
+        List<byte[]> data = new ArrayList<>(chunks.size());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (List<T> list : chunks.values()) {
+            bytes.reset();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (T entity : list) {
+                codec.write(entity, out);
+            }
+            out.flush();
+            data.add(bytes.toByteArray());
+        }
+        
+        long offset = ChunkedWorldFile.HEADER_SIZE 
+                + (long)chunks.size() * ChunkedWorldFile.INDEX_ENTRY_SIZE;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file.toPath())))) {
+            out.writeInt(ChunkedWorldFile.MAGIC);
+            out.writeInt(ChunkedWorldFile.VERSION);
+            out.writeFloat(chunkSize);
+            out.writeInt(chunks.size());
+            int i = 0;
+            for (Map.Entry<Long, List<T>> entry : chunks.entrySet()) {
+                long key = entry.getKey();
+                out.writeInt(ChunkedWorldFile.chunkX(key));
+                out.writeInt(ChunkedWorldFile.chunkY(key));
+                out.writeLong(offset);
+                out.writeInt(data.get(i).length);
+                out.writeInt(entry.getValue().size());
+                offset += data.get(i).length;
+                i++;
+            }
+            for (byte[] chunk : data) {
+                out.write(chunk);
+            }
+        }
+    }
+}
@@ -0,0 +1,476 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.entity.tile;
+
+import bropals.lib.simplegame.entity.BaseEntity;
+import bropals.lib.simplegame.entity.GameWorld;
+import bropals.lib.simplegame.lwjgl.LWJGLContext;
+import bropals.lib.simplegame.lwjgl.TileMapRenderer;
+import bropals.lib.simplegame.util.StaticLayer;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * A grid of tiles that is drawn from a single tileset image.
+ * <p>
+ * Each cell of the grid stores the index of a tile in the tileset, where
+ * tiles are numbered left to right, then top to bottom. A cell with the
+ * value <code>EMPTY</code> is not drawn.
+ * <p>
+ * The grid is split into square chunks. Only the chunks that overlap the
+ * view are drawn, and changing a tile only invalidates the chunk it is in.
+ * When rendered with a LWJGLContext, each chunk is uploaded once to its own
+ * vertex buffer and only uploaded again when one of its tiles changes. When
+ * rendered with a Graphics2D object, each chunk is cached in a StaticLayer
+ * the same way.
+ *
+ * @author Kevin Prehn
+ */
+public class TileMap extends BaseEntity {
+
+    /**
+     * The value of a cell that has no tile in it.
+     */
+    public static final short EMPTY = -1;
+
+    /**
+     * The default number of tiles along each side of a chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 16;
+
+    private final short[] tiles;
+    private final int columns, rows;
+    private final int tileWidth, tileHeight;
+    private final int chunkSize;
+    private final int chunkColumns, chunkRows;
+    private final int[] chunkVersions;
+    private float x, y;
+    private float viewX, viewY, viewWidth, viewHeight;
+    private BufferedImage tileset;
+    private TileMapRenderer glRenderer;
+    private ChunkLayer[] chunkLayers;
+
+    /**
+     * Create an empty TileMap with the default chunk size.
+     * @param parent The parent of the tile map
+     * @param x The x position of the tile map
+     * @param y The y position of the tile map
+     * @param columns The number of tiles across the tile map
+     * @param rows The number of tiles down the tile map
+     * @param tileWidth The width of each tile
+     * @param tileHeight The height of each tile
+     */
+    public TileMap(GameWorld<?> parent, float x, float y, int columns, int rows,
+            int tileWidth, int tileHeight) {
+        this(parent, x, y, columns, rows, tileWidth, tileHeight, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create an empty TileMap.
+     * @param parent The parent of the tile map
+     * @param x The x position of the tile map
+     * @param y The y position of the tile map
+     * @param columns The number of tiles across the tile map
+     * @param rows The number of tiles down the tile map
+     * @param tileWidth The width of each tile
+     * @param tileHeight The height of each tile
+     * @param chunkSize The number of tiles along each side of a chunk
+     */
+    public TileMap(GameWorld<?> parent, float x, float y, int columns, int rows,
+            int tileWidth, int tileHeight, int chunkSize) {
+        super(parent);
+        this.x = x;
+        this.y = y;
+        this.columns = columns;
+        this.rows = rows;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.chunkSize = chunkSize;
+        this.chunkColumns = (columns + chunkSize - 1) / chunkSize;
+        this.chunkRows = (rows + chunkSize - 1) / chunkSize;
+        this.chunkVersions = new int[chunkColumns * chunkRows];
+        this.tiles = new short[columns * rows];
+        Arrays.fill(tiles, EMPTY);
+    }
+
+    @Override
+    public void update(int mills) {
+    }
+
+    /**
+     * Get the tile index at the given cell.
+     * @param column The column of the cell
+     * @param row The row of the cell
+     * @return The tile index, or EMPTY if the cell has no tile
+     */
+    public short getTile(int column, int row) {
+        return tiles[row * columns + column];
+    }
+
+    /**
+     * Set the tile index at the given cell. The chunk containing the cell
+     * is invalidated if the tile changes.
+     * @param column The column of the cell
+     * @param row The row of the cell
+     * @param tile The tile index, or EMPTY to clear the cell
+     */
+    public void setTile(int column, int row, short tile) {
+        int index = row * columns + column;
+        if (tiles[index] != tile) {
+            tiles[index] = tile;
+            chunkVersions[(row / chunkSize) * chunkColumns + (column / chunkSize)]++;
+        }
+    }
+
+    /**
+     * Set every cell in the tile map at once. Every chunk is invalidated.
+     * @param newTiles The tile indices, row by row, with a length of
+     * <code>getColumns() * getRows()</code>
+     */
+    public void setTiles(short[] newTiles) {
+        System.arraycopy(newTiles, 0, tiles, 0, tiles.length);
+        for (int i=0; i<chunkVersions.length; i++) {
+            chunkVersions[i]++;
+        }
+    }
+
+    /**
+     * Get the version of a chunk. It changes every time a tile inside of
+     * the chunk changes, so renderers can tell when to rebuild it.
+     * @param chunkColumn The column of the chunk
+     * @param chunkRow The row of the chunk
+     * @return The version of the chunk
+     */
+    public int getChunkVersion(int chunkColumn, int chunkRow) {
+        return chunkVersions[chunkRow * chunkColumns + chunkColumn];
+    }
+
+    /**
+     * Set the area of the world that is visible. Chunks outside of it are
+     * not drawn. If the view width or height is 0 then the clip of the
+     * graphics object, or the size of the window, is used instead.
+     * @param viewX The x position of the view
+     * @param viewY The y position of the view
+     * @param viewWidth The width of the view
+     * @param viewHeight The height of the view
+     */
+    public void setView(float viewX, float viewY, float viewWidth, float viewHeight) {
+        this.viewX = viewX;
+        this.viewY = viewY;
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+    }
+
+    /**
+     * Set the image that the tiles are cut from. The tileset is cut into
+     * cells that are the size of a tile.
+     * @param tileset The tileset image
+     */
+    public void setTileset(BufferedImage tileset) {
+        this.tileset = tileset;
+        if (chunkLayers != null) {
+            for (ChunkLayer layer : chunkLayers) {
+                if (layer != null) {
+                    layer.flush();
+                }
+            }
+            chunkLayers = null;
+        }
+        if (glRenderer != null) {
+            glRenderer.dispose();
+            glRenderer = null;
+        }
+    }
+
+    @Override
+    public void render(Object graphicsObj) {
+        if (tileset == null) {
+            return;
+        }
+        if (graphicsObj instanceof LWJGLContext) {
+            LWJGLContext context = (LWJGLContext) graphicsObj;
+            if (glRenderer == null) {
+                glRenderer = new TileMapRenderer(context, this);
+            }
+            if (viewWidth > 0 && viewHeight > 0) {
+                glRenderer.render(viewX, viewY, viewWidth, viewHeight);
+            } else {
+                glRenderer.render(0, 0, context.getWindow().getScreenWidth(),
+                        context.getWindow().getScreenHeight());
+            }
+        } else {
+            Graphics2D g2 = (Graphics2D) graphicsObj;
+            float vx = viewX, vy = viewY, vw = viewWidth, vh = viewHeight;
+            if (vw <= 0 || vh <= 0) {
+                Rectangle clip = g2.getClipBounds();
+                if (clip == null) {
+                    vx = x;
+                    vy = y;
+                    vw = getWidth();
+                    vh = getHeight();
+                } else {
+                    vx = clip.x;
+                    vy = clip.y;
+                    vw = clip.width;
+                    vh = clip.height;
+                }
+            }
+            int firstColumn = getFirstVisibleChunkColumn(vx);
+            int lastColumn = getLastVisibleChunkColumn(vx + vw);
+            int firstRow = getFirstVisibleChunkRow(vy);
+            int lastRow = getLastVisibleChunkRow(vy + vh);
+            for (int cy=firstRow; cy<=lastRow; cy++) {
+                for (int cx=firstColumn; cx<=lastColumn; cx++) {
+                    renderChunk(g2, cx, cy);
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws a chunk from its cached layer, creating the layer the first time
+     * the chunk is drawn.
+     * @param g2 The graphics object to draw with
+     * @param chunkColumn The column of the chunk
+     * @param chunkRow The row of the chunk
+     */
+    private void renderChunk(Graphics2D g2, int chunkColumn, int chunkRow) {
+        if (chunkLayers == null) {
+            chunkLayers = new ChunkLayer[chunkVersions.length];
+        }
+        int chunk = chunkRow * chunkColumns + chunkColumn;
+        if (chunkLayers[chunk] == null) {
+            chunkLayers[chunk] = new ChunkLayer(chunkColumn, chunkRow);
+        }
+        ChunkLayer layer = chunkLayers[chunk];
+        if (layer.version != chunkVersions[chunk]) {
+            layer.version = chunkVersions[chunk];
+            layer.invalidate();
+        }
+        layer.render(g2, (int)x + chunkColumn * chunkSize * tileWidth, 
+                (int)y + chunkRow * chunkSize * tileHeight);
+    }
+
+    /**
+     * The cached image of one chunk for Java2D rendering.
+     */
+    private class ChunkLayer extends StaticLayer {
+
+        private final int chunkColumn, chunkRow;
+        private int version;
+
+        ChunkLayer(int chunkColumn, int chunkRow) {
+            super(chunkSize * tileWidth, chunkSize * tileHeight);
+            this.chunkColumn = chunkColumn;
+            this.chunkRow = chunkRow;
+            this.version = chunkVersions[chunkRow * chunkColumns + chunkColumn];
+        }
+
+        @Override
+        protected void paintLayer(Graphics2D g) {
+            int tilesetColumns = getTilesetColumns();
+            int startColumn = chunkColumn * chunkSize;
+            int startRow = chunkRow * chunkSize;
+            int endColumn = Math.min(columns, startColumn + chunkSize);
+            int endRow = Math.min(rows, startRow + chunkSize);
+            for (int row=startRow; row<endRow; row++) {
+                for (int column=startColumn; column<endColumn; column++) {
+                    short tile = tiles[row * columns + column];
+                    if (tile == EMPTY) {
+                        continue;
+                    }
+                    int sx = (tile % tilesetColumns) * tileWidth;
+                    int sy = (tile / tilesetColumns) * tileHeight;
+                    int dx = (column - startColumn) * tileWidth;
+                    int dy = (row - startRow) * tileHeight;
+                    g.drawImage(tileset, dx, dy, dx + tileWidth, dy + tileHeight,
+                            sx, sy, sx + tileWidth, sy + tileHeight, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the first chunk column that is visible from the left edge of a view.
+     * @param left The left edge of the view, in world coordinates
+     * @return The first visible chunk column
+     */
+    public int getFirstVisibleChunkColumn(float left) {
+        return clamp((int)Math.floor((left - x) / (tileWidth * chunkSize)), chunkColumns);
+    }
+
+    /**
+     * Get the last chunk column that is visible from the right edge of a view.
+     * @param right The right edge of the view, in world coordinates
+     * @return The last visible chunk column
+     */
+    public int getLastVisibleChunkColumn(float right) {
+        return clamp((int)Math.floor((right - x) / (tileWidth * chunkSize)), chunkColumns);
+    }
+
+    /**
+     * Get the first chunk row that is visible from the top edge of a view.
+     * @param top The top edge of the view, in world coordinates
+     * @return The first visible chunk row
+     */
+    public int getFirstVisibleChunkRow(float top) {
+        return clamp((int)Math.floor((top - y) / (tileHeight * chunkSize)), chunkRows);
+    }
+
+    /**
+     * Get the last chunk row that is visible from the bottom edge of a view.
+     * @param bottom The bottom edge of the view, in world coordinates
+     * @return The last visible chunk row
+     */
+    public int getLastVisibleChunkRow(float bottom) {
+        return clamp((int)Math.floor((bottom - y) / (tileHeight * chunkSize)), chunkRows);
+    }
+
+    private int clamp(int chunk, int count) {
+        return Math.max(0, Math.min(count - 1, chunk));
+    }
+
+    /**
+     * Get the number of tiles across the tileset image.
+     * @return The number of tiles across the tileset image
+     */
+    public int getTilesetColumns() {
+        return tileset.getWidth() / tileWidth;
+    }
+
+    /**
+     * Get the tileset image.
+     * @return The tileset image, or null if none was set
+     */
+    public BufferedImage getTileset() {
+        return tileset;
+    }
+
+    /**
+     * Get the x position of the tile map.
+     * @return The x position of the tile map
+     */
+    public float getX() {
+        return x;
+    }
+
+    /**
+     * Set the x position of the tile map.
+     * @param x The new x position of the tile map
+     */
+    public void setX(float x) {
+        this.x = x;
+    }
+
+    /**
+     * Get the y position of the tile map.
+     * @return The y position of the tile map
+     */
+    public float getY() {
+        return y;
+    }
+
+    /**
+     * Set the y position of the tile map.
+     * @param y The new y position of the tile map
+     */
+    public void setY(float y) {
+        this.y = y;
+    }
+
+    /**
+     * Get the width of the whole tile map.
+     * @return The width of the tile map
+     */
+    public float getWidth() {
+        return columns * tileWidth;
+    }
+
+    /**
+     * Get the height of the whole tile map.
+     * @return The height of the tile map
+     */
+    public float getHeight() {
+        return rows * tileHeight;
+    }
+
+    /**
+     * Get the number of tiles across the tile map.
+     * @return The number of columns
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Get the number of tiles down the tile map.
+     * @return The number of rows
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Get the width of each tile.
+     * @return The width of each tile
+     */
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    /**
+     * Get the height of each tile.
+     * @return The height of each tile
+     */
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    /**
+     * Get the number of tiles along each side of a chunk.
+     * @return The chunk size
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Get the number of chunks across the tile map.
+     * @return The number of chunk columns
+     */
+    public int getChunkColumns() {
+        return chunkColumns;
+    }
+
+    /**
+     * Get the number of chunks down the tile map.
+     * @return The number of chunk rows
+     */
+    public int getChunkRows() {
+        return chunkRows;
+    }
+}
@@ -24,6 +24,7 @@
  */
 package bropals.lib.simplegame.gui;
 
+import bropals.lib.simplegame.io.AssetBatch;
 import java.awt.Color;
 import java.awt.Graphics;
 
@@ -37,6 +38,7 @@ public class GuiProgressBar extends GuiElement {
     private int maxValue;
     private Color progressBarColor;
     private Color backgroundColor;
+    private AssetBatch boundBatch = null;
     
     /**
      * Makes a GuiProgress bar for visually displaying progress on something.
@@ -50,12 +52,16 @@ public class GuiProgressBar extends GuiElement {
     public GuiProgressBar(int x, int y, int w, int h, int value, int maxValue) {
         super(x, y, w, h);
         this.value=value;
-        this.maxValue= 0;
+        this.maxValue=maxValue;
     }
     
     @Override
     public void render(Object graphicsObject) {
         Graphics g = (Graphics)graphicsObject;
+        if (boundBatch != null) {
+            setMaxValue(boundBatch.getTotal());
+            setValue(boundBatch.getCompletedCount());
+        }
         int progDraw = (int)((double)value/(double)maxValue * (double)getWidth());
         g.setColor(getProgressBarColor());
         g.fillRect(getX(), getY(), progDraw, getHeight());
@@ -147,6 +153,18 @@ public class GuiProgressBar extends GuiElement {
         }
     }
     
+    /**
+     * Makes this progress bar show the progress of an AssetBatch. The
+     * value and maximum value are read from the batch every time the bar
+     * is rendered, so it is safe to bind to a batch that is loading on
+     * other threads.
+     * @param batch the batch to show the progress of, or <code>null</code>
+     * to stop following a batch.
+     */
+    public void bindTo(AssetBatch batch) {
+        this.boundBatch = batch;
+    }
+    
     /**
      * Sets the progress back to zero
      */
@@ -0,0 +1,212 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * A group of assets that are loaded together in the background by an
+ * AssetManager's loading threads.
+ * <p>
+ * Add the assets to load, then call <code>load()</code>. The progress of the
+ * batch can be polled from the game loop with <code>getCompletedCount()</code>
+ * and <code>getTotal()</code>, or bound to a GuiProgressBar, or followed with
+ * an AssetLoadListener.
+ * @author Jonathon
+ */
+public class AssetBatch {
+    
+    private final AssetManager assetManager;
+    private final List<Entry> entries = new ArrayList<>();
+    private final List<AssetLoadListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicInteger completed = new AtomicInteger(0);
+    private final AtomicInteger failed = new AtomicInteger(0);
+    private CompletableFuture<Void> future = null;
+    
+    /**
+     * Makes an empty batch that loads into the given AssetManager.
+     * @param assetManager the AssetManager to load the assets into.
+     */
+    public AssetBatch(AssetManager assetManager) {
+        this.assetManager = assetManager;
+    }
+    
+    /**
+     * Adds an asset to the batch. Must be called before <code>load()</code>.
+     * @param <T> the type of the asset
+     * @param loc the relative location of the asset
+     * @param key the key to store the asset as
+     * @param assetType the type of the asset
+     * @return this batch
+     */
+    public <T> AssetBatch add(String loc, String key, Class<T> assetType) {
+        if (future != null) {
+            throw new IllegalStateException("Can not add to a batch that is already loading");
+        }
+        entries.add(new Entry(loc, key, assetType));
+        return this;
+    }
+    
+    /**
+     * Adds every file in a directory to the batch, using the same keys as
+     * <code>AssetManager.loadAssetsInDirectories</code>.
+     * @param <T> the type of the assets
+     * @param loc the relative location of the directory
+     * @param assetType the type of the assets
+     * @param recursive whether or not subdirectories should be added
+     * @return this batch
+     */
+    public <T> AssetBatch addDirectory(String loc, Class<T> assetType, boolean recursive) {
+        for (Map.Entry<String, String> file : 
+                assetManager.findAssetsInDirectories(loc, recursive).entrySet()) {
+            add(file.getValue(), file.getKey(), assetType);
+        }
+        return this;
+    }
+    
+    /**
+     * Adds a listener that is told about the progress of the batch.
+     * @param listener the listener to add
+     */
+    public void addListener(AssetLoadListener listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * Removes a listener from the batch.
+     * @param listener the listener to remove
+     */
+    public void removeListener(AssetLoadListener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Starts loading every asset in the batch on the AssetManager's loading
+     * threads. Calling this more than once returns the same future.
+     * @return a future that completes when every asset has either loaded or
+     * failed to load. It does not complete exceptionally when assets fail;
+     * check <code>getFailedCount()</code> instead.
+     */
+    public synchronized CompletableFuture<Void> load() {
+        if (future != null) {
+            return future;
+        }
+        final int total = entries.size();
+        CompletableFuture<?>[] loads = new CompletableFuture<?>[total];
+        for (int i=0; i<total; i++) {
+            final Entry entry = entries.get(i);
+            loads[i] = assetManager.loadAssetAsync(entry.loc, entry.key, entry.type)
+                    .whenComplete(new BiConsumer<Object, Throwable>() {
+                @Override
+                public void accept(Object asset, Throwable error) {
+                    int done = completed.incrementAndGet();
+                    if (error != null) {
+                        failed.incrementAndGet();
+                        for (AssetLoadListener listener : listeners) {
+                            listener.assetFailed(entry.key, error, done, total);
+                        }
+                    } else {
+                        for (AssetLoadListener listener : listeners) {
+                            listener.assetLoaded(entry.key, done, total);
+                        }
+                    }
+                }
+            });
+        }
+        future = CompletableFuture.allOf(loads).handle(
+                new BiFunction<Void, Throwable, Void>() {
+            @Override
+            public Void apply(Void result, Throwable error) {
+                return null;
+            }
+        });
+        return future;
+    }
+    
+    /**
+     * Gets the number of assets in the batch.
+     * @return the number of assets in the batch.
+     */
+    public int getTotal() {
+        return entries.size();
+    }
+    
+    /**
+     * Gets the number of assets that have finished loading, including the
+     * ones that failed.
+     * @return the number of finished assets.
+     */
+    public int getCompletedCount() {
+        return completed.get();
+    }
+    
+    /**
+     * Gets the number of assets that failed to load.
+     * @return the number of failed assets.
+     */
+    public int getFailedCount() {
+        return failed.get();
+    }
+    
+    /**
+     * Returns <code>true</code> if every asset in the batch has finished
+     * loading.
+     * @return if the batch is done loading.
+     */
+    public boolean isDone() {
+        return completed.get() >= entries.size();
+    }
+    
+    /**
+     * Gets how much of the batch has finished loading, from 0 to 1.
+     * @return the fraction of the batch that has finished loading.
+     */
+    public float getProgress() {
+        return entries.isEmpty() ? 1 : (float)completed.get() / entries.size();
+    }
+    
+    /**
+     * An asset that is part of the batch.
+     */
+    private static class Entry {
+        
+        private final String loc;
+        private final String key;
+        private final Class<?> type;
+
+        Entry(String loc, String key, Class<?> type) {
+            this.loc = loc;
+            this.key = key;
+            this.type = type;
+        }
+    }
+}
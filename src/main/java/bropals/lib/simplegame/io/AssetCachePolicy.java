@@ -0,0 +1,61 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+/**
+ * Limits how much memory the assets of one AssetLoader may use.
+ * <p>
+ * When the estimated size of the loaded assets goes over the budget, the
+ * least recently used assets are evicted until it fits again. An evicted
+ * asset is loaded again from where it originally came from the next time
+ * it is requested, so <code>getAsset</code> still returns it. Assets that are
+ * pinned, and assets that were not loaded from a file, URL or jar resource,
+ * are never evicted.
+ * <p>
+ * Evicted assets are released by their loader (a SoundEffect's Clip is 
+ * closed, for example), so pin any asset that the game holds on to instead
+ * of getting it from the AssetManager each time.
+ * @author Jonathon
+ */
+public class AssetCachePolicy {
+    
+    private final long maxBytes;
+    
+    /**
+     * Makes a cache policy with the given memory budget.
+     * @param maxBytes the estimated number of bytes the assets may use.
+     */
+    public AssetCachePolicy(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the estimated number of bytes the assets may use.
+     * @return the memory budget in bytes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
+/**
+ * A typed reference to an asset that is loaded when it is first needed.
+ * <p>
+ * A handle can be declared before its asset is loaded, such as in a field
+ * of a GameState. The asset is loaded on the calling thread the first time
+ * <code>get()</code> is called, or in the background with 
+ * <code>prefetch()</code>. Handles are made with 
+ * <code>AssetManager.handle</code>, and two handles are equal if they refer 
+ * to the same key and type of asset.
+ * @author Jonathon
+ * @param <T> the type of the asset
+ */
+public class AssetHandle<T> {
+    
+    /**
+     * The load state of an asset handle.
+     */
+    public enum State {
+        /**
+         * The asset has not been loaded, or was unloaded.
+         */
+        UNLOADED,
+        /**
+         * The asset is being loaded in the background.
+         */
+        LOADING,
+        /**
+         * The asset is loaded.
+         */
+        LOADED,
+        /**
+         * The asset could not be loaded.
+         */
+        FAILED
+    }
+    
+    private final AssetManager assetManager;
+    private final String loc;
+    private final URL url;
+    private final String key;
+    private final Class<T> type;
+    private volatile State state = State.UNLOADED;
+    private CompletableFuture<T> pending = null;
+
+    AssetHandle(AssetManager assetManager, String loc, URL url, String key, 
+            Class<T> type) {
+        this.assetManager = assetManager;
+        this.loc = loc;
+        this.url = url;
+        this.key = key;
+        this.type = type;
+    }
+    
+    /**
+     * Gets the asset, loading it on this thread first if it is not loaded.
+     * If the asset is being loaded in the background, this waits for it.
+     * @return the asset, or <code>null</code> if it could not be loaded.
+     */
+    public T get() {
+        T asset = assetManager.getAsset(key, type);
+        if (asset != null) {
+            state = State.LOADED;
+            return asset;
+        }
+        CompletableFuture<T> future;
+        synchronized(this) {
+            future = pending;
+        }
+        if (future != null) {
+            try {
+                return future.join();
+            } catch (CompletionException ex) {
+                return null;
+            }
+        }
+        if (url != null) {
+            assetManager.loadAsset(url, key, type);
+        } else {
+            assetManager.loadAsset(loc, key, type);
+        }
+        asset = assetManager.getAsset(key, type);
+        state = asset == null ? State.FAILED : State.LOADED;
+        return asset;
+    }
+    
+    /**
+     * Starts loading the asset on one of the AssetManager's loading threads,
+     * if it is not already loaded or loading.
+     * @return a future that completes with the asset once it is loaded, or
+     * completes exceptionally if it could not be loaded.
+     */
+    public synchronized CompletableFuture<T> prefetch() {
+        if (pending != null) {
+            return pending;
+        }
+        T asset = assetManager.getAsset(key, type);
+        if (asset != null) {
+            state = State.LOADED;
+            return CompletableFuture.completedFuture(asset);
+        }
+        state = State.LOADING;
+        CompletableFuture<T> future = url != null ? 
+                assetManager.loadAssetAsync(url, key, type) :
+                assetManager.loadAssetAsync(loc, key, type);
+        // pending is set before the callback is attached, since the callback
+        // runs right away if the load already finished
+        final CompletableFuture<T> loading = new CompletableFuture<>();
+        pending = loading;
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T asset, Throwable failure) {
+                synchronized(AssetHandle.this) {
+                    if (pending == loading) {
+                        state = failure == null ? State.LOADED : State.FAILED;
+                        pending = null;
+                    }
+                }
+                if (failure == null) {
+                    loading.complete(asset);
+                } else {
+                    loading.completeExceptionally(failure);
+                }
+            }
+        });
+        return loading;
+    }
+    
+    /**
+     * Removes the asset from memory. It is loaded again the next time it
+     * is needed.
+     */
+    public void unload() {
+        assetManager.unloadAsset(key, type);
+        synchronized(this) {
+            pending = null;
+            state = State.UNLOADED;
+        }
+    }
+    
+    /**
+     * Gets the load state of the asset.
+     * @return the load state of the asset.
+     */
+    public State getState() {
+        State current = state;
+        if (current != State.LOADING) {
+            boolean loaded = assetManager.getAssetLoader(type).isLoaded(key);
+            if (loaded) {
+                return State.LOADED;
+            } else if (current == State.LOADED) {
+                return State.UNLOADED;
+            }
+        }
+        return current;
+    }
+    
+    /**
+     * Returns <code>true</code> if the asset is loaded.
+     * @return if the asset is loaded.
+     */
+    public boolean isLoaded() {
+        return getState() == State.LOADED;
+    }
+    
+    /**
+     * Gets the key the asset is stored as.
+     * @return the key of the asset.
+     */
+    public String getKey() {
+        return key;
+    }
+    
+    /**
+     * Gets the type of the asset.
+     * @return the type of the asset.
+     */
+    public Class<T> getType() {
+        return type;
+    }
+    
+    /**
+     * Gets the AssetManager that loads the asset.
+     * @return the AssetManager of the asset.
+     */
+    public AssetManager getAssetManager() {
+        return assetManager;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * key.hashCode() + type.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof AssetHandle)) {
+            return false;
+        }
+        AssetHandle<?> other = (AssetHandle<?>)obj;
+        return key.equals(other.key) && type.equals(other.type) &&
+                assetManager == other.assetManager;
+    }
+
+    @Override
+    public String toString() {
+        return type.getSimpleName() + " " + key + " (" + getState() + ")";
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+/**
+ * Listens to the progress of an AssetBatch as it loads.
+ * <p>
+ * The methods are called on AssetManager's loading threads, not the game
+ * loop's thread, so implementations should only do thread-safe work in them.
+ * @author Jonathon
+ */
+public interface AssetLoadListener {
+    
+    /**
+     * Called when an asset in the batch has been loaded.
+     * @param key the key of the asset that was loaded.
+     * @param completed the number of assets in the batch that have finished
+     * loading, including ones that failed.
+     * @param total the number of assets in the batch.
+     */
+    void assetLoaded(String key, int completed, int total);
+    
+    /**
+     * Called when an asset in the batch could not be loaded.
+     * @param key the key of the asset that failed to load.
+     * @param cause the reason the asset failed to load.
+     * @param completed the number of assets in the batch that have finished
+     * loading, including ones that failed.
+     * @param total the number of assets in the batch.
+     */
+    void assetFailed(String key, Throwable cause, int completed, int total);
+}
@@ -0,0 +1,126 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+/**
+ * How long one asset took to load and how much memory it uses. Recorded by
+ * AssetManager for every asset that is loaded from a source.
+ * @author Jonathon
+ * @see AssetLoadReport
+ */
+public class AssetLoadMetrics {
+    
+    private final String key;
+    private final String type;
+    private final String source;
+    private final long bytesRead;
+    private final long readNanos;
+    private final long decodeNanos;
+    private final long footprint;
+
+    AssetLoadMetrics(String key, String type, String source, long bytesRead, 
+            long readNanos, long decodeNanos, long footprint) {
+        this.key = key;
+        this.type = type;
+        this.source = source;
+        this.bytesRead = bytesRead;
+        this.readNanos = readNanos;
+        this.decodeNanos = decodeNanos;
+        this.footprint = footprint;
+    }
+
+    /**
+     * Gets the key the asset is stored as.
+     * @return the key of the asset.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the name of the asset's class, such as <code>BufferedImage</code>.
+     * @return the type of the asset.
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Gets where the asset was loaded from.
+     * @return a description of the asset's source.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Gets the number of bytes that were read to load the asset.
+     * @return the number of bytes read.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Gets the time spent waiting for the asset's bytes to be read.
+     * @return the read time in nanoseconds.
+     */
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    /**
+     * Gets the time spent loading the asset, other than reading its bytes.
+     * @return the decode time in nanoseconds.
+     */
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+    
+    /**
+     * Gets the total time spent loading the asset.
+     * @return the read time plus the decode time, in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return readNanos + decodeNanos;
+    }
+
+    /**
+     * Gets the estimated memory used by the asset once it was loaded, as
+     * estimated by its AssetLoader.
+     * @return the memory footprint in bytes, or 0 if the loader does not
+     * estimate it.
+     */
+    public long getFootprint() {
+        return footprint;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + key + ": " + bytesRead + " bytes, read " + 
+                (readNanos / 1000000.0) + "ms, decode " + 
+                (decodeNanos / 1000000.0) + "ms, " + footprint + " bytes in memory";
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The load metrics of a set of assets, sorted from the most expensive to
+ * load to the least. Made by <code>AssetManager.getLoadReport()</code>.
+ * <p>
+ * The report can be written as CSV or JSON to be looked at with other tools.
+ * @author Jonathon
+ */
+public class AssetLoadReport {
+    
+    private final List<AssetLoadMetrics> metrics;
+    
+    /**
+     * Makes a report of the given metrics.
+     * @param metrics the metrics of the loaded assets.
+     */
+    public AssetLoadReport(Collection<AssetLoadMetrics> metrics) {
+        List<AssetLoadMetrics> sorted = new ArrayList<>(metrics);
+        Collections.sort(sorted, new Comparator<AssetLoadMetrics>() {
+            @Override
+            public int compare(AssetLoadMetrics a, AssetLoadMetrics b) {
+                return Long.compare(b.getTotalNanos(), a.getTotalNanos());
+            }
+        });
+        this.metrics = Collections.unmodifiableList(sorted);
+    }
+    
+    /**
+     * Gets the metrics of every asset, most expensive first.
+     * @return the metrics in this report.
+     */
+    public List<AssetLoadMetrics> getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Gets the metrics of the most expensive assets.
+     * @param count the number of assets.
+     * @return up to <code>count</code> metrics, most expensive first.
+     */
+    public List<AssetLoadMetrics> getWorst(int count) {
+        return metrics.subList(0, Math.min(count, metrics.size()));
+    }
+    
+    /**
+     * Gets the total time spent loading every asset in this report. Assets
+     * loaded in the background overlap, so this can be longer than the time
+     * that actually passed.
+     * @return the total load time in nanoseconds.
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (AssetLoadMetrics m : metrics) {
+            total += m.getTotalNanos();
+        }
+        return total;
+    }
+    
+    /**
+     * Gets the total number of bytes read to load every asset in this report.
+     * @return the total bytes read.
+     */
+    public long getTotalBytesRead() {
+        long total = 0;
+        for (AssetLoadMetrics m : metrics) {
+            total += m.getBytesRead();
+        }
+        return total;
+    }
+    
+    /**
+     * Gets the estimated memory used by every asset in this report.
+     * @return the total memory footprint in bytes.
+     */
+    public long getTotalFootprint() {
+        long total = 0;
+        for (AssetLoadMetrics m : metrics) {
+            total += m.getFootprint();
+        }
+        return total;
+    }
+    
+    /**
+     * Formats this report as CSV, with a header row and one row per asset.
+     * Times are in milliseconds.
+     * @return the report as CSV.
+     */
+    public String toCSV() {
+        StringBuilder csv = new StringBuilder(
+                "key,type,source,bytesRead,readMillis,decodeMillis,totalMillis,footprint\n");
+        for (AssetLoadMetrics m : metrics) {
+            csv.append(csvField(m.getKey())).append(',')
+                    .append(csvField(m.getType())).append(',')
+                    .append(csvField(m.getSource())).append(',')
+                    .append(m.getBytesRead()).append(',')
+                    .append(millis(m.getReadNanos())).append(',')
+                    .append(millis(m.getDecodeNanos())).append(',')
+                    .append(millis(m.getTotalNanos())).append(',')
+                    .append(m.getFootprint()).append('\n');
+        }
+        return csv.toString();
+    }
+    
+    /**
+     * Formats this report as a JSON array with one object per asset. Times
+     * are in milliseconds.
+     * @return the report as JSON.
+     */
+    public String toJSON() {
+        StringBuilder json = new StringBuilder("[\n");
+        for (int i=0; i<metrics.size(); i++) {
+            AssetLoadMetrics m = metrics.get(i);
+            json.append("  {\"key\": ").append(jsonString(m.getKey()))
+                    .append(", \"type\": ").append(jsonString(m.getType()))
+                    .append(", \"source\": ").append(jsonString(m.getSource()))
+                    .append(", \"bytesRead\": ").append(m.getBytesRead())
+                    .append(", \"readMillis\": ").append(millis(m.getReadNanos()))
+                    .append(", \"decodeMillis\": ").append(millis(m.getDecodeNanos()))
+                    .append(", \"totalMillis\": ").append(millis(m.getTotalNanos()))
+                    .append(", \"footprint\": ").append(m.getFootprint())
+                    .append(i + 1 < metrics.size() ? "},\n" : "}\n");
+        }
+        return json.append("]\n").toString();
+    }
+    
+    /**
+     * Writes this report to a file as CSV.
+     * @param file the file to write.
+     * @throws IOException if the file could not be written.
+     */
+    public void writeCSV(File file) throws IOException {
+        write(file, toCSV());
+    }
+    
+    /**
+     * Writes this report to a file as JSON.
+     * @param file the file to write.
+     * @throws IOException if the file could not be written.
+     */
+    public void writeJSON(File file) throws IOException {
+        write(file, toJSON());
+    }
+    
+    private static void write(File file, String text) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(text);
+        }
+    }
+    
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+    }
+    
+    private static String csvField(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) {
+            return s;
+        }
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+    
+    private static String jsonString(String s) {
+        StringBuilder json = new StringBuilder("\"");
+        for (int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int)c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"').toString();
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (AssetLoadMetrics m : metrics) {
+            text.append(m).append('\n');
+        }
+        return text.toString();
+    }
+}
@@ -25,23 +25,50 @@
 package bropals.lib.simplegame.io;
 
 import bropals.lib.simplegame.logger.ErrorLogger;
+import bropals.lib.simplegame.logger.InfoLogger;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
-import java.nio.file.Files;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Super class for all asset loaders.
+ * <p>
+ * Assets may be loaded by AssetManager's loading threads, so the assets
+ * cache is safe to use from more than one thread and implementations of
+ * <code>loadAsset</code> should not share unsynchronized state between calls.
+ * Reading an asset never takes a lock, and adding or replacing an asset is
+ * atomic, so the game loop always sees either the old asset or the new one.
+ * <p>
+ * An AssetLoader can be given an {@link AssetCachePolicy} to limit how much
+ * memory its assets use. Implementations should override 
+ * <code>estimateSize</code> for the policy to have an effect.
  *
  * @author Kevin Prehn
  * @param <T> the type of assets that this AssetLoader will load.
  */
 public abstract class AssetLoader<T> {
     
-    private final HashMap<String, T> assets = new HashMap<>();
+    private final ConcurrentHashMap<String, T> assets = new ConcurrentHashMap<>();
+    /**
+     * Where each asset was loaded from, so it can be loaded again.
+     */
+    private final ConcurrentHashMap<String, AssetSource> sources = new ConcurrentHashMap<>();
+    /**
+     * The size and usage of each asset, only kept while there is a cache policy.
+     */
+    private final ConcurrentHashMap<String, CacheEntry> cacheEntries = new ConcurrentHashMap<>();
+    private final AtomicLong cachedBytes = new AtomicLong(0);
+    private final Object evictionLock = new Object();
+    private volatile AssetCachePolicy cachePolicy = null;
     /**
      * The asset manager this asset loader is inside.
      */
@@ -53,18 +80,125 @@ public abstract class AssetLoader<T> {
      * @param asset the asset to add
      */
     protected void add(String key, T asset) {
+        if (asset == null) {
+            ErrorLogger.println("Can not add a null asset with the key " + key);
+            return;
+        }
         assets.put(key, asset);
+        track(key, asset);
+    }
+    
+    /**
+     * Atomically swaps the asset stored as the given key for a new one. Any
+     * thread that gets the asset afterwards sees the new asset; threads that
+     * already got the old asset keep using it.
+     * @param key the key of the asset to replace
+     * @param asset the new asset
+     * @return the asset that was replaced, or <code>null</code> if there 
+     * was no asset with that key.
+     */
+    public T replace(String key, T asset) {
+        if (asset == null) {
+            ErrorLogger.println("Can not replace an asset with null: " + key);
+            return null;
+        }
+        T old = assets.put(key, asset);
+        track(key, asset);
+        return old;
+    }
+    
+    /**
+     * Atomically swaps the asset stored as the given key for a new one, but
+     * only if the stored asset is still the expected one.
+     * @param key the key of the asset to replace
+     * @param expected the asset that should currently be stored
+     * @param asset the new asset
+     * @return <code>true</code> if the asset was replaced.
+     */
+    public boolean replace(String key, T expected, T asset) {
+        if (asset == null) {
+            ErrorLogger.println("Can not replace an asset with null: " + key);
+            return false;
+        }
+        if (assets.replace(key, expected, asset)) {
+            track(key, asset);
+            return true;
+        }
+        return false;
     }
     
     /**
-     * Gets a loaded asset from this AssetLoader.
+     * Gets a snapshot of the keys of the assets in this AssetLoader.
+     * @return the keys of the loaded assets.
+     */
+    public Set<String> getKeys() {
+        return Collections.unmodifiableSet(new HashSet<>(assets.keySet()));
+    }
+    
+    /**
+     * Gets a loaded asset from this AssetLoader. If the asset was evicted
+     * by the cache policy, it is loaded again from its source first.
      * @param key the key the asset was stored as
      * @return the loaded asset
      */
     public T getAsset(String key) {
+        T asset = assets.get(key);
+        if (cachePolicy != null) {
+            if (asset == null) {
+                AssetSource source = sources.get(key);
+                if (source != null) {
+                    InfoLogger.println("Reloading evicted asset " + key);
+                    loadAsset(key, source);
+                    asset = assets.get(key);
+                }
+            }
+            CacheEntry entry = cacheEntries.get(key);
+            if (entry != null) {
+                entry.lastUsed = System.nanoTime();
+            }
+        }
+        return asset;
+    }
+    
+    /**
+     * Returns <code>true</code> if the asset with the given key is in memory.
+     * Evicted assets are not in memory until they are requested again.
+     * @param key the key of the asset
+     * @return if the asset is loaded.
+     */
+    public boolean isLoaded(String key) {
+        return assets.containsKey(key);
+    }
+    
+    /**
+     * Gets the asset that is stored as the given key without loading it
+     * again if it was evicted.
+     * @param key the key of the asset
+     * @return the stored asset, or <code>null</code> if there is none.
+     */
+    T peek(String key) {
         return assets.get(key);
     }
     
+    /**
+     * Gets where the asset with the given key was loaded from.
+     * @param key the key of the asset
+     * @return the source of the asset, or <code>null</code> if it was not
+     * loaded from a file, URL or jar resource.
+     */
+    public AssetSource getSource(String key) {
+        return sources.get(key);
+    }
+    
+    /**
+     * Gets the keys and sources of every asset that knows where it was
+     * loaded from.
+     * @return a snapshot of the asset sources.
+     */
+    public Map<String, AssetSource> getSources() {
+        return Collections.unmodifiableMap(new ConcurrentHashMap<>(sources));
+    }
+    
     void setAssetManager(AssetManager assetManager) {
         this.assetManager = assetManager;
     }
@@ -87,17 +221,103 @@ public abstract class AssetLoader<T> {
     public abstract void loadAsset(String key, InputStream inputStream);
     
     /**
-     * Loads an asset from a file.
+     * Loads an asset from a source, remembering the source so that the 
+     * asset can be loaded again later.
      * @param key the key to store the asset as
-     * @param file the file to load the asset from.
+     * @param source where to load the asset from
      */
-    public void loadAsset(String key, File file) {
+    public void loadAsset(String key, AssetSource source) {
+        T before = assets.get(key);
         try {
-            loadAsset(key, new FileInputStream(file));
+            long start = System.nanoTime();
+            ByteBuffer buffer = source.getBuffer();
+            if (buffer != null) {
+                int bytes = buffer.remaining();
+                loadAsset(key, buffer);
+                rememberSource(key, source, before);
+                recordLoad(key, source, bytes, 0, System.nanoTime() - start);
+                return;
+            }
+            MeteredInputStream stream = new MeteredInputStream(source.open());
+            boolean stored = false;
+            try {
+                long opened = System.nanoTime();
+                loadAsset(key, stream);
+                stored = rememberSource(key, source, before);
+                long total = System.nanoTime() - start;
+                long read = (opened - start) + stream.getNanos();
+                recordLoad(key, source, stream.getBytes(), read, total - read);
+            } finally {
+                if (!stored || !isStreamed()) {
+                    stream.close();
+                }
+            }
         } catch (IOException ex) {
-            ErrorLogger.println("Could not open InputStream with file: " + 
-                    file.toString() + ": " + ex);
+            ErrorLogger.println("Could not open InputStream with " + 
+                    source + ": " + ex);
+        }
+    }
+    
+    /**
+     * Remembers where an asset was loaded from, if loading it stored a new
+     * asset. A source that fails to load is not remembered, so 
+     * <code>getAsset</code> does not keep reading it again.
+     * @return if a new asset was stored.
+     */
+    private boolean rememberSource(String key, AssetSource source, T before) {
+        T asset = assets.get(key);
+        if (asset != null && asset != before) {
+            sources.put(key, source);
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Gets if the assets of this loader keep reading from their input 
+     * stream after <code>loadAsset</code> returns. The stream of a streamed
+     * asset is left open once the asset is stored, and the asset is 
+     * responsible for it. The default implementation returns false.
+     * @return if assets are streamed from their input stream.
+     */
+    protected boolean isStreamed() {
+        return false;
+    }
+    
+    /**
+     * Gives the load metrics of an asset to the AssetManager, if the asset
+     * was loaded.
+     */
+    private void recordLoad(String key, AssetSource source, long bytes, 
+            long readNanos, long decodeNanos) {
+        AssetManager manager = assetManager;
+        T asset = assets.get(key);
+        if (manager == null || asset == null || !manager.isRecordingLoadMetrics()) {
+            return;
         }
+        manager.recordLoad(new AssetLoadMetrics(key, asset.getClass().getSimpleName(),
+                source.toString(), bytes, readNanos, decodeNanos, estimateSize(asset)));
+    }
+    
+    /**
+     * Loads an asset from a buffer, such as a slice of a memory-mapped
+     * {@link AssetPack}. The default implementation reads the buffer through
+     * a {@link ByteBufferInputStream}; loaders that can decode straight from
+     * a buffer should override this.
+     * @param key the key to store the asset as
+     * @param buffer the data of the asset, from its position to its limit
+     */
+    public void loadAsset(String key, ByteBuffer buffer) {
+        loadAsset(key, new ByteBufferInputStream(buffer));
+    }
+    
+    /**
+     * Loads an asset from a file.
+     * @param key the key to store the asset as
+     * @param file the file to load the asset from.
+     */
+    public void loadAsset(String key, File file) {
+        loadAsset(key, AssetSource.fromFile(file));
     }
     
     /**
@@ -106,21 +326,195 @@ public abstract class AssetLoader<T> {
      * @param url the URL to load the asset from
      */
     public void loadAssetFromURL(String key, URL url) {
-        try {
-            loadAsset(key,
-                    url.openStream()
-            );
-        } catch (IOException ex) {
-            ErrorLogger.println("Could not open InputStream with URL: " + 
-                    url.toString() + ": " + ex);
+        loadAsset(key, AssetSource.fromURL(url));
+    }
+    
+    /**
+     * Loads an asset again from the source it was loaded from. The new asset
+     * takes the place of the old one atomically, and the old one is
+     * released. If the asset can not be loaded, the old one is kept.
+     * @param key the key of the asset to reload
+     * @return <code>true</code> if the asset was reloaded.
+     */
+    public boolean reload(String key) {
+        AssetSource source = sources.get(key);
+        if (source == null) {
+            ErrorLogger.println("Can not reload " + key + 
+                    ": it was not loaded from a source");
+            return false;
+        }
+        T old = assets.get(key);
+        loadAsset(key, source);
+        T asset = assets.get(key);
+        if (asset == null || asset == old) {
+            return false;
         }
+        if (old != null) {
+            release(old);
+        }
+        return true;
     }
     
     /**
-     * Removes the asset with the specified key from memory.
+     * Removes the asset with the specified key from memory. Unlike an 
+     * eviction, the asset will not be loaded again on request.
      * @param key the key of the asset to remove
      */
     public void unload(String key) {
+        sources.remove(key);
         assets.remove(key);
+        untrack(key);
+    }
+    
+    /**
+     * Sets the cache policy that limits the memory used by this 
+     * AssetLoader's assets. Assets that are already loaded start being
+     * tracked, and are evicted right away if they are over the budget.
+     * @param cachePolicy the cache policy, or <code>null</code> to keep every
+     * asset in memory until it is unloaded.
+     */
+    public void setCachePolicy(AssetCachePolicy cachePolicy) {
+        synchronized(evictionLock) {
+            this.cachePolicy = cachePolicy;
+            cacheEntries.clear();
+            cachedBytes.set(0);
+        }
+        if (cachePolicy != null) {
+            for (Map.Entry<String, T> entry : assets.entrySet()) {
+                track(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+    
+    /**
+     * Gets the cache policy of this AssetLoader.
+     * @return the cache policy, or <code>null</code> if there is none.
+     */
+    public AssetCachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+    
+    /**
+     * Gets the estimated number of bytes used by the assets in this
+     * AssetLoader. Only counted while there is a cache policy.
+     * @return the estimated memory use in bytes.
+     */
+    public long getCachedBytes() {
+        return cachedBytes.get();
+    }
+    
+    /**
+     * Keeps the asset with the given key from being evicted until it is
+     * unpinned as many times as it was pinned.
+     * @param key the key of the asset to pin
+     */
+    public void pin(String key) {
+        CacheEntry entry = cacheEntries.get(key);
+        if (entry != null) {
+            entry.pins.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Allows a pinned asset to be evicted again.
+     * @param key the key of the asset to unpin
+     */
+    public void unpin(String key) {
+        CacheEntry entry = cacheEntries.get(key);
+        if (entry != null && entry.pins.decrementAndGet() < 0) {
+            entry.pins.set(0);
+        }
+    }
+    
+    /**
+     * Estimates how many bytes of memory an asset uses. Used by the cache
+     * policy; the default implementation returns 0.
+     * @param asset the asset to estimate the size of
+     * @return the estimated size in bytes
+     */
+    protected long estimateSize(T asset) {
+        return 0;
+    }
+    
+    /**
+     * Frees any resources held by an asset that was evicted by the cache
+     * policy or replaced by <code>reload</code>. The default implementation
+     * does nothing.
+     * @param asset the asset that is no longer stored
+     */
+    protected void release(T asset) {
+    }
+    
+    /**
+     * Records the size of a newly stored asset and evicts other assets if
+     * the budget is exceeded.
+     */
+    private void track(String key, T asset) {
+        if (cachePolicy == null) {
+            return;
+        }
+        CacheEntry entry = new CacheEntry(estimateSize(asset));
+        CacheEntry old = cacheEntries.put(key, entry);
+        if (old != null) {
+            entry.pins.set(old.pins.get());
+            cachedBytes.addAndGet(-old.size);
+        }
+        cachedBytes.addAndGet(entry.size);
+        evict(key);
+    }
+    
+    private void untrack(String key) {
+        CacheEntry old = cacheEntries.remove(key);
+        if (old != null) {
+            cachedBytes.addAndGet(-old.size);
+        }
+    }
+    
+    /**
+     * Evicts the least recently used assets until the cached assets fit
+     * in the budget.
+     * @param keep the key of an asset that must not be evicted, because it
+     * was just added
+     */
+    private void evict(String keep) {
+        synchronized(evictionLock) {
+            AssetCachePolicy policy = cachePolicy;
+            while (policy != null && cachedBytes.get() > policy.getMaxBytes()) {
+                String oldestKey = null;
+                long oldestUse = Long.MAX_VALUE;
+                for (Map.Entry<String, CacheEntry> entry : cacheEntries.entrySet()) {
+                    CacheEntry value = entry.getValue();
+                    if (!entry.getKey().equals(keep) && value.pins.get() == 0 &&
+                            value.lastUsed < oldestUse && 
+                            sources.containsKey(entry.getKey())) {
+                        oldestKey = entry.getKey();
+                        oldestUse = value.lastUsed;
+                    }
+                }
+                if (oldestKey == null) {
+                    break;
+                }
+                T evicted = assets.remove(oldestKey);
+                untrack(oldestKey);
+                if (evicted != null) {
+                    release(evicted);
+                    InfoLogger.println("Evicted asset " + oldestKey);
+                }
+            }
+        }
+    }
+    
+    /**
+     * The size and last use of an asset tracked by the cache policy.
+     */
+    private static class CacheEntry {
+        
+        private final long size;
+        private volatile long lastUsed = System.nanoTime();
+        private final AtomicInteger pins = new AtomicInteger(0);
+
+        CacheEntry(long size) {
+            this.size = size;
+        }
     }
 }
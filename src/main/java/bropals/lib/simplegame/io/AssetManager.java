@@ -30,13 +30,23 @@ import bropals.lib.simplegame.sound.SoundEffect;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URL;
-import java.util.HashMap;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 /**
@@ -44,7 +54,17 @@ import java.util.regex.Pattern;
  * BufferedImageLoader by default.
  * <p>
  * AssetManager loads assets relative to the root of a jar file, a file outside
- * of the jar file, or a URL, depending on which constructor is used.
+ * of the jar file, a URL, or an {@link AssetPack}, depending on which 
+ * constructor is used.
+ * <p>
+ * Assets can also be loaded in the background with 
+ * <code>loadAssetAsync</code> or an {@link AssetBatch}. Background loads
+ * are decoded on a fixed number of daemon loading threads, which are
+ * started the first time they are needed.
+ * <p>
+ * The time spent reading and decoding each asset is recorded, and can be
+ * looked at with <code>getLoadReport()</code> to find the assets that make
+ * loading slow.
  * @author Jonathon
  */
 public class AssetManager {
@@ -52,7 +72,14 @@ public class AssetManager {
     private final File localRoot;
     private final URL urlRoot;
     private final Class jarRoot;
-    private final HashMap<Class, AssetLoader> loaders = new HashMap<>();
+    private final AssetPack packRoot;
+    private final ConcurrentHashMap<Class, AssetLoader> loaders = new ConcurrentHashMap<>();
+    private int loadingThreads = Runtime.getRuntime().availableProcessors();
+    private ExecutorService loadingExecutor = null;
+    private AssetWatcher watcher = null;
+    private final ConcurrentHashMap<String, AssetLoadMetrics> loadMetrics = 
+            new ConcurrentHashMap<>();
+    private volatile boolean recordingLoadMetrics = true;
 
     /**
      * Make an AssetManager for the given root directory that is a URL. 
@@ -67,6 +94,7 @@ public class AssetManager {
         this.urlRoot = url;
         this.localRoot = null;
         this.jarRoot = null;
+        this.packRoot = null;
         if (addDefaultLoaders) {
             addAssetLoader(new SoundEffectLoader(), SoundEffect.class);
             addAssetLoader(new BufferedImageLoader(), BufferedImage.class);
@@ -86,6 +114,7 @@ public class AssetManager {
         this.localRoot = root;
         this.urlRoot = null;
         this.jarRoot = null;
+        this.packRoot = null;
         if (addDefaultLoaders) {
             addAssetLoader(new SoundEffectLoader(), SoundEffect.class);
             addAssetLoader(new BufferedImageLoader(), BufferedImage.class);
@@ -104,6 +133,27 @@ public class AssetManager {
         this.localRoot = null;
         this.urlRoot = null;
         this.jarRoot = assetClass;
+        this.packRoot = null;
+        if (addDefaultLoaders) {
+            addAssetLoader(new SoundEffectLoader(), SoundEffect.class);
+            addAssetLoader(new BufferedImageLoader(), BufferedImage.class);
+            addAssetLoader(new MusicLoader(), Music.class);
+        }
+    }
+    
+    /**
+     * Makes an AssetManager whose root is an asset pack. Locations are the
+     * keys of the assets in the pack, which are their paths relative to the
+     * directory that was packed.
+     * @param pack the asset pack the assets are located in.
+     * @param addDefaultLoaders specify whether or not AssetManager should
+     * add SoundEffectLoader, BufferedImageLoader, and MusicLoader to itself.
+     */
+    public AssetManager(AssetPack pack, boolean addDefaultLoaders) {
+        this.localRoot = null;
+        this.urlRoot = null;
+        this.jarRoot = null;
+        this.packRoot = pack;
         if (addDefaultLoaders) {
             addAssetLoader(new SoundEffectLoader(), SoundEffect.class);
             addAssetLoader(new BufferedImageLoader(), BufferedImage.class);
@@ -217,6 +267,21 @@ public class AssetManager {
         return (T) loaders.get(assetType).getAsset(key);
     }
         
+    /**
+     * Atomically swaps a loaded asset for a new one, such as when an asset is
+     * reloaded while the game loop is using it.
+     * @param <T> the type of the asset
+     * @param key the key the asset is stored as
+     * @param asset the new asset
+     * @param assetType the type of the asset
+     * @return the asset that was replaced, or <code>null</code> if there was
+     * no asset with the specified key.
+     */
+    public <T> T replaceAsset(String key, T asset, Class<T> assetType) {
+        AssetLoader<T> loader = getAssetLoader(assetType);
+        return loader.replace(key, asset);
+    }
+    
     /**
      * Loads an asset and stores it as the given key. This method is used
      * for relative asset locating, as it uses the root directory.
@@ -226,10 +291,13 @@ public class AssetManager {
      * @param assetType the type of the asset that is being loaded
      */
     public <T> void loadAsset(String loc, String key, Class<T> assetType) {
-        if (!isJarRoot()) {
+        if (isPackRoot()) {
+            loaders.get(assetType).loadAsset(key, 
+                    AssetSource.fromPack(packRoot, toPackKey(loc)));
+        } else if (!isJarRoot()) {
             loaders.get(assetType).loadAsset(key, getFile(loc));
         } else {
-            loaders.get(assetType).loadAsset(key, getInputStream(loc));
+            loaders.get(assetType).loadAsset(key, AssetSource.fromResource(jarRoot, loc));
         }
     }
     
@@ -246,6 +314,255 @@ public class AssetManager {
         loaders.get(assetType).loadAssetFromURL(key, url);
     }
     
+    /**
+     * Makes a handle to an asset that is loaded the first time it is needed.
+     * @param <T> the type of the asset
+     * @param loc the relative location of the asset
+     * @param key the key to store the asset as
+     * @param assetType the type of the asset
+     * @return a handle to the asset.
+     */
+    public <T> AssetHandle<T> handle(String loc, String key, Class<T> assetType) {
+        return new AssetHandle<>(this, loc, null, key, assetType);
+    }
+    
+    /**
+     * Makes a handle to an asset at a specific URL that is loaded the first
+     * time it is needed.
+     * @param <T> the type of the asset
+     * @param url the URL location of the asset
+     * @param key the key to store the asset as
+     * @param assetType the type of the asset
+     * @return a handle to the asset.
+     */
+    public <T> AssetHandle<T> handle(URL url, String key, Class<T> assetType) {
+        return new AssetHandle<>(this, null, url, key, assetType);
+    }
+    
+    /**
+     * Loads an asset on one of this AssetManager's loading threads and
+     * stores it as the given key.
+     * @param <T> the type of the asset that is being loaded
+     * @param loc the relative location of the asset that is being loaded
+     * @param key the key to store the asset as
+     * @param assetType the type of the asset that is being loaded
+     * @return a future that completes with the loaded asset once it has been
+     * stored, or completes exceptionally if it could not be loaded.
+     */
+    public <T> CompletableFuture<T> loadAssetAsync(final String loc, 
+            final String key, final Class<T> assetType) {
+        return CompletableFuture.supplyAsync(new Supplier<T>() {
+            @Override
+            public T get() {
+                AssetLoader<T> loader = getAssetLoader(assetType);
+                T before = loader == null ? null : loader.peek(key);
+                loadAsset(loc, key, assetType);
+                return checkLoaded(key, assetType, loc, before);
+            }
+        }, getLoadingExecutor());
+    }
+    
+    /**
+     * Loads an asset from a specific URL on one of this AssetManager's 
+     * loading threads and stores it as the given key.
+     * @param <T> the type of the asset that is being loaded
+     * @param url the URL location of the asset that is being loaded
+     * @param key the key to store the asset as
+     * @param assetType the type of the asset that is being loaded
+     * @return a future that completes with the loaded asset once it has been
+     * stored, or completes exceptionally if it could not be loaded.
+     */
+    public <T> CompletableFuture<T> loadAssetAsync(final URL url, 
+            final String key, final Class<T> assetType) {
+        return CompletableFuture.supplyAsync(new Supplier<T>() {
+            @Override
+            public T get() {
+                AssetLoader<T> loader = getAssetLoader(assetType);
+                T before = loader == null ? null : loader.peek(key);
+                loadAsset(url, key, assetType);
+                return checkLoaded(key, assetType, url.toString(), before);
+            }
+        }, getLoadingExecutor());
+    }
+    
+    /**
+     * Gets an asset that was just loaded, failing if the loader did not 
+     * store a new asset. An asset that was already stored as the key before
+     * the load does not count, so a failed reload is not reported as 
+     * loaded.
+     */
+    private <T> T checkLoaded(String key, Class<T> assetType, String loc, T before) {
+        AssetLoader<T> loader = getAssetLoader(assetType);
+        T asset = loader == null ? null : loader.peek(key);
+        if (asset == null || asset == before) {
+            throw new CompletionException(
+                    new IOException("Could not load asset " + key + " from " + loc));
+        }
+        return asset;
+    }
+    
+    /**
+     * Sets the number of threads used to load assets in the background. 
+     * Must be called before any assets are loaded in the background. The
+     * default is the number of available processors.
+     * @param loadingThreads the number of loading threads.
+     */
+    public void setLoadingThreads(int loadingThreads) {
+        if (loadingExecutor != null) {
+            ErrorLogger.println("The loading threads have already been started");
+            return;
+        }
+        this.loadingThreads = Math.max(1, loadingThreads);
+    }
+    
+    /**
+     * Gets the executor that runs background loads, starting its threads
+     * if they have not been started yet.
+     * @return the executor that runs background loads.
+     */
+    synchronized ExecutorService getLoadingExecutor() {
+        if (loadingExecutor == null) {
+            loadingExecutor = Executors.newFixedThreadPool(loadingThreads, 
+                    new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger(0);
+                
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "AssetManager loader " + 
+                            count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return loadingExecutor;
+    }
+    
+    /**
+     * Stops this AssetManager's loading threads once the loads that have
+     * already been started are finished. They are started again if more 
+     * assets are loaded in the background.
+     */
+    public synchronized void shutdownLoading() {
+        if (loadingExecutor != null) {
+            loadingExecutor.shutdown();
+            loadingExecutor = null;
+        }
+    }
+    
+    /**
+     * Sets whether or not the read time, decode time, size and memory
+     * footprint of each asset are recorded when it is loaded. This is on
+     * by default.
+     * @param recordingLoadMetrics whether or not to record load metrics.
+     */
+    public void setRecordingLoadMetrics(boolean recordingLoadMetrics) {
+        this.recordingLoadMetrics = recordingLoadMetrics;
+    }
+    
+    /**
+     * Returns <code>true</code> if load metrics are recorded for each asset
+     * that is loaded.
+     * @return if load metrics are recorded.
+     */
+    public boolean isRecordingLoadMetrics() {
+        return recordingLoadMetrics;
+    }
+    
+    void recordLoad(AssetLoadMetrics metrics) {
+        loadMetrics.put(metrics.getType() + ":" + metrics.getKey(), metrics);
+    }
+    
+    /**
+     * Gets a report of how long each asset took to load, from the most
+     * expensive to the least. If an asset was loaded more than once, only
+     * the latest load is in the report.
+     * @return the load report.
+     */
+    public AssetLoadReport getLoadReport() {
+        return new AssetLoadReport(loadMetrics.values());
+    }
+    
+    /**
+     * Forgets the load metrics recorded so far.
+     */
+    public void clearLoadMetrics() {
+        loadMetrics.clear();
+    }
+    
+    /**
+     * Gives a decoded asset cache to this AssetManager's BufferedImageLoader
+     * and SoundEffectLoader, if it has them, so that images and sounds are
+     * only decoded the first time they are loaded.
+     * @param cache the cache, or <code>null</code> to stop using a cache.
+     * @see DecodedAssetCache
+     */
+    public void setDecodedAssetCache(DecodedAssetCache cache) {
+        AssetLoader<BufferedImage> images = getAssetLoader(BufferedImage.class);
+        if (images instanceof BufferedImageLoader) {
+            ((BufferedImageLoader)images).setDecodedCache(cache);
+        }
+        AssetLoader<SoundEffect> sounds = getAssetLoader(SoundEffect.class);
+        if (sounds instanceof SoundEffectLoader) {
+            ((SoundEffectLoader)sounds).setDecodedCache(cache);
+        }
+    }
+    
+    /**
+     * Starts watching the asset directories for changes and reloading the
+     * assets whose files change, waiting 250 milliseconds for a file to
+     * stop changing. Only for AssetManagers with a local file root; meant
+     * for development, while assets are being edited.
+     * @see AssetWatcher
+     */
+    public void enableHotReload() {
+        enableHotReload(250);
+    }
+    
+    /**
+     * Starts watching the asset directories for changes and reloading the
+     * assets whose files change. Only for AssetManagers with a local file
+     * root.
+     * @param debounceMillis how long a file must stay unchanged before it
+     * is reloaded, in milliseconds.
+     * @see AssetWatcher
+     */
+    public synchronized void enableHotReload(long debounceMillis) {
+        if (!isLocalRoot()) {
+            ErrorLogger.println("Hot reloading needs an AssetManager with a local file root");
+            return;
+        }
+        disableHotReload();
+        try {
+            watcher = new AssetWatcher(this, localRoot, debounceMillis);
+        } catch (IOException ex) {
+            ErrorLogger.println("Could not watch " + localRoot + " for changes: " + ex);
+        }
+    }
+    
+    /**
+     * Stops watching the asset directories for changes.
+     */
+    public synchronized void disableHotReload() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException ex) {
+                ErrorLogger.println("Could not stop watching for asset changes: " + ex);
+            }
+            watcher = null;
+        }
+    }
+    
+    /**
+     * Returns <code>true</code> if assets are reloaded when their files 
+     * change.
+     * @return if hot reloading is enabled.
+     */
+    public synchronized boolean isHotReloadEnabled() {
+        return watcher != null;
+    }
+    
     /**
      * Removes an asset from memory.
      * @param <T> the type of the asset to unload
@@ -285,6 +602,24 @@ public class AssetManager {
         return jarRoot != null;
     }
     
+    /**
+     * Returns <code>true</code> if this AssetManager is loading assets out
+     * of an asset pack.
+     * @return if this AssetManager is loading assets from an asset pack.
+     */
+    public boolean isPackRoot() {
+        return packRoot != null;
+    }
+    
+    /**
+     * Gets the asset pack this AssetManager loads assets from.
+     * @return the asset pack, or <code>null</code> if the root is not an
+     * asset pack.
+     */
+    public AssetPack getAssetPack() {
+        return packRoot;
+    }
+    
     /**
      * Loads one type of asset in a directory and (optionally) all its subdirectories. 
      * The key that each asset is given will be its file name without the extension.
@@ -298,21 +633,78 @@ public class AssetManager {
      */
     public <T> void loadAssetsInDirectories(String loc, Class<T> assetType, 
             boolean recursive) {
+        for (Map.Entry<String, String> file : 
+                findAssetsInDirectories(loc, recursive).entrySet()) {
+            loadAsset(file.getValue(), file.getKey(), assetType);
+        }
+    }
+    
+    /**
+     * Finds the files in a directory and (optionally) all its subdirectories.
+     * @param loc the relative location of the directory
+     * @param recursive whether or not to look in the subdirectories as well
+     * @return a map of the key each file would be given to the relative
+     * location of the file.
+     */
+    Map<String, String> findAssetsInDirectories(String loc, boolean recursive) {
+        Map<String, String> found = new LinkedHashMap<>();
+        findAssetsInDirectories(loc, recursive, found);
+        return found;
+    }
+    
+    private void findAssetsInDirectories(String loc, boolean recursive, 
+            Map<String, String> found) {
+        if (isPackRoot()) {
+            findAssetsInPack(loc, recursive, found);
+            return;
+        }
         File directory = getFile(loc);
-        if (directory.isDirectory()) {
+        if (directory != null && directory.isDirectory()) {
             File[] files = directory.listFiles();
             for (File f : files) {
                 String name = extractNameWithoutExtension(f);
                 String path = loc + System.getProperty("file.separator") + f.getName();
                 if (f.isFile()) {
-                    loadAsset(path, name, assetType);
+                    found.put(name, path);
                 } else if (f.isDirectory() && recursive) {
-                    loadAssetsInDirectories(path, assetType, true);
+                    findAssetsInDirectories(path, true, found);
                 }
             }
         }
     }
     
+    private void findAssetsInPack(String loc, boolean recursive, 
+            Map<String, String> found) {
+        String prefix = toPackKey(loc);
+        if (!prefix.isEmpty() && !prefix.endsWith("/")) {
+            prefix += "/";
+        }
+        for (String packKey : packRoot.getKeys()) {
+            if (!packKey.startsWith(prefix)) {
+                continue;
+            }
+            String rest = packKey.substring(prefix.length());
+            if (rest.contains("/") && !recursive) {
+                continue;
+            }
+            String name = rest.substring(rest.lastIndexOf('/') + 1);
+            found.put(name.split(Pattern.quote("."))[0], packKey);
+        }
+    }
+    
+    /**
+     * Turns a relative location into the key of an asset in the pack.
+     * @param loc the relative location
+     * @return the key in the asset pack
+     */
+    private String toPackKey(String loc) {
+        String key = loc.replace('\\', '/');
+        while (key.startsWith("/")) {
+            key = key.substring(1);
+        }
+        return key;
+    }
+    
     /**
      * Adds an AssetLoader to this AssetManager.
      * @param <T> the type of assets the AssetLoader loads
@@ -359,6 +751,18 @@ public class AssetManager {
         return loaders.get(assetType)!=null;
     }
     
+    /**
+     * Gets all of the asset loaders in this AssetManager.
+     * @return a snapshot of the asset loaders.
+     */
+    public Collection<AssetLoader<?>> getAssetLoaders() {
+        ArrayList<AssetLoader<?>> snapshot = new ArrayList<>(loaders.size());
+        for (AssetLoader<?> loader : loaders.values()) {
+            snapshot.add(loader);
+        }
+        return snapshot;
+    }
+    
     /**
      * Gets the asset loader that loads the specified type.
      * @param <T> the type of asset loader to get
@@ -400,36 +804,34 @@ public class AssetManager {
     }
     
     /**
-     * Loads the source from a file.
+     * Loads the source from a file. Files are read as UTF-8, and a file that
+     * has not changed since it was last read is not read again.
      * @param loc the relative location of the file.
      * @return the source from the file.
+     * @see TextLoader
      */
     public String loadSource(String loc) {
         try {
-            return loadSource(new FileInputStream(getFile(loc)));
-        } catch (FileNotFoundException ex) {
+            if (isPackRoot()) {
+                try (InputStream stream = new ByteBufferInputStream(
+                        packRoot.getData(toPackKey(loc)))) {
+                    return TextLoader.read(stream);
+                }
+            } else if (isJarRoot()) {
+                try (InputStream stream = getInputStream(loc)) {
+                    if (stream == null) {
+                        ErrorLogger.println("Could not find file: " + loc);
+                        return null;
+                    }
+                    return TextLoader.read(stream);
+                }
+            }
+            return TextLoader.read(getFile(loc));
+        } catch (FileNotFoundException | NoSuchFileException ex) {
             ErrorLogger.println("Could not find file: " + loc);
             return null;
-        }
-    }
-    
-    /**
-     * Loads source from an input stream.
-     * @param inputStream the input stream where the source is located
-     * @return the source
-     */
-    private String loadSource(InputStream inputStream) {
-        try {
-            String source = "";
-            InputStreamReader rdr = new InputStreamReader(inputStream);
-            int c;
-            while ( ( c = rdr.read() ) != -1) {
-                source += (char)c;
-            }
-            rdr.close();
-            return source;
-        } catch(IOException ioe) {
-            ErrorLogger.println("Could not load source from input stream");
+        } catch (IOException ex) {
+            ErrorLogger.println("Could not load source " + loc + ": " + ex);
             return null;
         }
     }
@@ -438,10 +840,12 @@ public class AssetManager {
      * Loads a source file at a URL.
      * @param url the URL of where the source is.
      * @return the loaded source
-\     */
+     */
     public String loadSourceFromURL(URL url) {
         try {
-            return loadSource(url.openStream());
+            try (InputStream stream = url.openStream()) {
+                return TextLoader.read(stream);
+            }
         } catch (IOException ex) {
             ErrorLogger.println("Could not load source from URL");
             return null;
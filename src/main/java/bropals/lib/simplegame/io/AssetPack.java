@@ -0,0 +1,306 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A single file that holds many assets, made with {@link AssetPackBuilder}.
+ * <p>
+ * The whole pack is memory-mapped when it is opened, and the data of each
+ * asset is given out as a read-only slice of the mapped buffer, so reading an
+ * asset does not copy it or seek through the file system. Assets that were
+ * compressed when the pack was built are inflated into a new buffer.
+ * <p>
+ * A pack file starts with a header: the magic bytes <code>BPAK</code>, the
+ * format version and the number of entries. An index follows with, for each
+ * entry, its key, type, compression, offset, stored length and original
+ * length. The data of every entry comes after the index.
+ * Strings are stored as a 2 byte length followed by their UTF-8 bytes, and
+ * numbers are big-endian.
+ * @author Jonathon
+ */
+public class AssetPack implements Closeable {
+    
+    /**
+     * The bytes every asset pack starts with.
+     */
+    public static final byte[] MAGIC = "BPAK".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * The version of the pack format.
+     */
+    public static final int VERSION = 1;
+    /**
+     * The compression of an entry that is stored as it is.
+     */
+    public static final byte COMPRESSION_NONE = 0;
+    /**
+     * The compression of an entry that is stored with a Deflater.
+     */
+    public static final byte COMPRESSION_DEFLATE = 1;
+    
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    
+    /**
+     * Opens and memory-maps an asset pack.
+     * @param file the pack file.
+     * @throws IOException if the file could not be read or is not an asset
+     * pack.
+     */
+    public AssetPack(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Asset pack is larger than 2GB: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            readIndex();
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+    
+    private void readIndex() throws IOException {
+        ByteBuffer header = buffer.duplicate();
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            for (int i=0; i<MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i]) {
+                    throw new IOException("Not an asset pack: " + file);
+                }
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported asset pack version " + 
+                        version + ": " + file);
+            }
+            int count = header.getInt();
+            for (int i=0; i<count; i++) {
+                String key = readString(header);
+                String type = readString(header);
+                byte compression = header.get();
+                long offset = header.getLong();
+                int length = header.getInt();
+                int rawLength = header.getInt();
+                if (offset < 0 || offset + length > buffer.capacity()) {
+                    throw new IOException("Asset pack entry " + key + 
+                            " is outside of the file: " + file);
+                }
+                entries.put(key, new Entry(key, type, compression, 
+                        offset, length, rawLength));
+            }
+        } catch (java.nio.BufferUnderflowException ex) {
+            throw new IOException("Asset pack index is truncated: " + file);
+        }
+    }
+    
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Gets the data of an asset in this pack. Uncompressed assets are a
+     * read-only view of the mapped file.
+     * @param key the key of the asset in the pack.
+     * @return the data of the asset, from position 0 to its length.
+     * @throws IOException if there is no asset with the key or it could
+     * not be inflated.
+     */
+    public ByteBuffer getData(String key) throws IOException {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            throw new IOException("No asset " + key + " in asset pack " + file);
+        }
+        ByteBuffer data = buffer.asReadOnlyBuffer();
+        data.position((int)entry.getOffset());
+        data.limit((int)entry.getOffset() + entry.getLength());
+        data = data.slice();
+        if (entry.getCompression() == COMPRESSION_DEFLATE) {
+            return inflate(entry, data);
+        }
+        return data;
+    }
+    
+    private ByteBuffer inflate(Entry entry, ByteBuffer data) throws IOException {
+        byte[] compressed = new byte[data.remaining()];
+        data.get(compressed);
+        byte[] raw = new byte[entry.getRawLength()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int read = inflater.inflate(raw);
+            if (read != raw.length) {
+                throw new IOException("Asset " + entry.getKey() + 
+                        " inflated to the wrong length");
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Could not inflate asset " + 
+                    entry.getKey() + ": " + ex);
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(raw).asReadOnlyBuffer();
+    }
+    
+    /**
+     * Returns <code>true</code> if there is an asset with the given key in
+     * this pack.
+     * @param key the key of the asset.
+     * @return if the asset is in this pack.
+     */
+    public boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+    
+    /**
+     * Gets the index entry of an asset in this pack.
+     * @param key the key of the asset.
+     * @return the entry, or <code>null</code> if there is no such asset.
+     */
+    public Entry getEntry(String key) {
+        return entries.get(key);
+    }
+    
+    /**
+     * Gets the keys of all of the assets in this pack, in the order they
+     * were packed.
+     * @return the keys of the assets in this pack.
+     */
+    public Set<String> getKeys() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+    
+    /**
+     * Gets the file this pack was opened from.
+     * @return the pack file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Closes the pack's file. The mapped buffer is released by the garbage
+     * collector once no slices of it are still in use.
+     * @throws IOException if the file could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+    
+    /**
+     * The index entry of one asset in an asset pack.
+     */
+    public static class Entry {
+        
+        private final String key;
+        private final String type;
+        private final byte compression;
+        private final long offset;
+        private final int length;
+        private final int rawLength;
+
+        Entry(String key, String type, byte compression, long offset, 
+                int length, int rawLength) {
+            this.key = key;
+            this.type = type;
+            this.compression = compression;
+            this.offset = offset;
+            this.length = length;
+            this.rawLength = rawLength;
+        }
+
+        /**
+         * Gets the key of the asset, which is its path relative to the
+         * directory that was packed, separated by <code>/</code>.
+         * @return the key of the asset.
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Gets the type of the asset, which is the extension of the file 
+         * it was packed from.
+         * @return the type of the asset.
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * Gets how the asset's data is compressed.
+         * @return <code>COMPRESSION_NONE</code> or <code>COMPRESSION_DEFLATE</code>.
+         */
+        public byte getCompression() {
+            return compression;
+        }
+
+        /**
+         * Gets where the asset's data starts in the pack file.
+         * @return the offset of the data in bytes.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Gets the number of bytes stored in the pack for this asset.
+         * @return the stored length in bytes.
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Gets the number of bytes of the asset once it is uncompressed.
+         * @return the original length in bytes.
+         */
+        public int getRawLength() {
+            return rawLength;
+        }
+    }
+}
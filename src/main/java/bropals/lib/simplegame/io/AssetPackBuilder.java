@@ -0,0 +1,249 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+import bropals.lib.simplegame.logger.ErrorLogger;
+import bropals.lib.simplegame.logger.InfoLogger;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Builds an {@link AssetPack} out of files.
+ * <p>
+ * Each file is stored with its path relative to the directory it was added
+ * from as its key, using <code>/</code> as the separator, so an AssetManager
+ * with a pack root loads the same locations as one with the directory as 
+ * its root. The builder can also be run from the command line:
+ * <pre>
+ * java bropals.lib.simplegame.io.AssetPackBuilder [-compress] directory pack
+ * </pre>
+ * @author Jonathon
+ */
+public class AssetPackBuilder {
+    
+    private final List<PendingEntry> entries = new ArrayList<>();
+    private boolean compress = false;
+    
+    /**
+     * Sets whether or not files are compressed with a Deflater. A file is
+     * only stored compressed if that makes it smaller, so formats that are
+     * already compressed, such as PNG, are stored as they are. Compressed
+     * assets have to be inflated when they are read instead of being read
+     * straight from the mapped pack.
+     * @param compress whether or not to compress files.
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+    
+    /**
+     * Returns <code>true</code> if files are compressed when they are packed.
+     * @return if files are compressed.
+     */
+    public boolean isCompress() {
+        return compress;
+    }
+    
+    /**
+     * Adds a file to the pack. Its type is its extension.
+     * @param key the key to store the file as.
+     * @param file the file to add.
+     */
+    public void add(String key, File file) {
+        entries.add(new PendingEntry(key, extractExtension(file), file));
+    }
+    
+    /**
+     * Adds every file in a directory to the pack, keyed by their paths 
+     * relative to the directory.
+     * @param directory the directory to add.
+     * @param recursive whether or not files in subdirectories are added too.
+     */
+    public void addDirectory(File directory, boolean recursive) {
+        addDirectory(directory, "", recursive);
+    }
+    
+    private void addDirectory(File directory, String prefix, boolean recursive) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            ErrorLogger.println("Could not list the files in " + directory);
+            return;
+        }
+        Arrays.sort(files);
+        for (File f : files) {
+            if (f.isFile()) {
+                add(prefix + f.getName(), f);
+            } else if (f.isDirectory() && recursive) {
+                addDirectory(f, prefix + f.getName() + "/", true);
+            }
+        }
+    }
+    
+    /**
+     * Gets the number of files that have been added.
+     * @return the number of files to pack.
+     */
+    public int getEntryCount() {
+        return entries.size();
+    }
+    
+    /**
+     * Writes all of the added files into a pack file, replacing it if it
+     * already exists.
+     * @param pack the pack file to write.
+     * @throws IOException if a file could not be read or the pack could 
+     * not be written.
+     */
+    public void build(File pack) throws IOException {
+        List<byte[]> data = new ArrayList<>(entries.size());
+        long indexLength = AssetPack.MAGIC.length + 8;
+        for (PendingEntry entry : entries) {
+            byte[] raw = Files.readAllBytes(entry.file.toPath());
+            entry.rawLength = raw.length;
+            byte[] stored = raw;
+            entry.compression = AssetPack.COMPRESSION_NONE;
+            if (compress) {
+                byte[] deflated = deflate(raw);
+                if (deflated.length < raw.length) {
+                    stored = deflated;
+                    entry.compression = AssetPack.COMPRESSION_DEFLATE;
+                }
+            }
+            data.add(stored);
+            indexLength += 2 + utf8(entry.key).length + 2 + 
+                    utf8(entry.type).length + 1 + 8 + 4 + 4;
+        }
+        
+        try (OutputStream file = Files.newOutputStream(pack.toPath());
+                DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(file))) {
+            out.write(AssetPack.MAGIC);
+            out.writeInt(AssetPack.VERSION);
+            out.writeInt(entries.size());
+            long offset = indexLength;
+            for (int i=0; i<entries.size(); i++) {
+                PendingEntry entry = entries.get(i);
+                writeString(out, entry.key);
+                writeString(out, entry.type);
+                out.writeByte(entry.compression);
+                out.writeLong(offset);
+                out.writeInt(data.get(i).length);
+                out.writeInt(entry.rawLength);
+                offset += data.get(i).length;
+            }
+            for (byte[] bytes : data) {
+                out.write(bytes);
+            }
+        }
+        InfoLogger.println("Packed " + entries.size() + " assets into " + pack);
+    }
+    
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] out = new byte[raw.length + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            return Arrays.copyOf(out, length);
+        } finally {
+            deflater.end();
+        }
+    }
+    
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = utf8(s);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("String is too long for an asset pack: " + s);
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String extractExtension(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1);
+    }
+    
+    /**
+     * Packs a directory from the command line.
+     * @param args <code>[-compress] directory pack</code>
+     */
+    public static void main(String[] args) {
+        boolean compress = args.length > 0 && args[0].equals("-compress");
+        int first = compress ? 1 : 0;
+        if (args.length - first != 2) {
+            System.err.println("Usage: AssetPackBuilder [-compress] directory pack");
+            System.exit(1);
+        }
+        AssetPackBuilder builder = new AssetPackBuilder();
+        builder.setCompress(compress);
+        builder.addDirectory(new File(args[first]), true);
+        try {
+            builder.build(new File(args[first + 1]));
+        } catch (IOException ex) {
+            ErrorLogger.println("Could not build asset pack: " + ex);
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * A file waiting to be packed.
+     */
+    private static class PendingEntry {
+        
+        private final String key;
+        private final String type;
+        private final File file;
+        private byte compression;
+        private int rawLength;
+
+        PendingEntry(String key, String type, File file) {
+            this.key = key;
+            this.type = type;
+            this.file = file;
+        }
+    }
+}
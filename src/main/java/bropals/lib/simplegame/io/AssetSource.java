@@ -0,0 +1,161 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+
+/**
+ * Where an asset was loaded from. AssetLoader remembers the source of each
+ * asset so that the asset can be loaded again later, such as after it was
+ * evicted by an AssetCachePolicy.
+ * @author Jonathon
+ */
+public abstract class AssetSource {
+    
+    /**
+     * Opens a new stream to read the asset from.
+     * @return a new stream of the asset's data.
+     * @throws IOException if the stream could not be opened.
+     */
+    public abstract InputStream open() throws IOException;
+    
+    /**
+     * Gets the data of the asset as a buffer, if this source can give it
+     * out without reading it through a stream.
+     * @return the data of the asset, or <code>null</code> if this source 
+     * can only be read with <code>open()</code>.
+     * @throws IOException if the data could not be read.
+     */
+    public ByteBuffer getBuffer() throws IOException {
+        return null;
+    }
+    
+    /**
+     * Gets the local file this source reads from.
+     * @return the file, or <code>null</code> if this source is not a local file.
+     */
+    public File getFile() {
+        return null;
+    }
+    
+    /**
+     * Makes a source that reads from a local file.
+     * @param file the file to read.
+     * @return the source.
+     */
+    public static AssetSource fromFile(final File file) {
+        return new AssetSource() {
+            @Override
+            public InputStream open() throws IOException {
+                return new FileInputStream(file);
+            }
+
+            @Override
+            public File getFile() {
+                return file;
+            }
+            
+            @Override
+            public String toString() {
+                return file.toString();
+            }
+        };
+    }
+    
+    /**
+     * Makes a source that reads from a URL.
+     * @param url the URL to read.
+     * @return the source.
+     */
+    public static AssetSource fromURL(final URL url) {
+        return new AssetSource() {
+            @Override
+            public InputStream open() throws IOException {
+                return url.openStream();
+            }
+            
+            @Override
+            public String toString() {
+                return url.toString();
+            }
+        };
+    }
+    
+    /**
+     * Makes a source that reads a resource relative to the root of the jar
+     * file that the given class is in.
+     * @param jarRoot a class in the jar file.
+     * @param loc the location of the resource relative to the jar's root.
+     * @return the source.
+     */
+    public static AssetSource fromResource(final Class<?> jarRoot, final String loc) {
+        return new AssetSource() {
+            @Override
+            public InputStream open() throws IOException {
+                InputStream stream = jarRoot.getResourceAsStream("/" + loc);
+                if (stream == null) {
+                    throw new FileNotFoundException("No resource at /" + loc);
+                }
+                return stream;
+            }
+            
+            @Override
+            public String toString() {
+                return "/" + loc;
+            }
+        };
+    }
+    
+    /**
+     * Makes a source that reads an asset out of an asset pack.
+     * @param pack the asset pack.
+     * @param key the key of the asset in the pack.
+     * @return the source.
+     */
+    public static AssetSource fromPack(final AssetPack pack, final String key) {
+        return new AssetSource() {
+            @Override
+            public InputStream open() throws IOException {
+                return new ByteBufferInputStream(pack.getData(key));
+            }
+
+            @Override
+            public ByteBuffer getBuffer() throws IOException {
+                return pack.getData(key);
+            }
+            
+            @Override
+            public String toString() {
+                return pack.getFile() + "!" + key;
+            }
+        };
+    }
+}
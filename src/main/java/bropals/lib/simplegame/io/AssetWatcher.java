@@ -0,0 +1,218 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+import bropals.lib.simplegame.logger.ErrorLogger;
+import bropals.lib.simplegame.logger.InfoLogger;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the asset directories of an AssetManager and reloads assets when
+ * their files change. Made by <code>AssetManager.enableHotReload</code>.
+ * <p>
+ * Editors often write a file in several steps, so a file is only reloaded
+ * once it has not changed for the debounce delay. Assets are reloaded on
+ * the AssetManager's loading threads and swapped into their AssetLoader
+ * atomically, so the game loop keeps running and sees either the old asset
+ * or the new one. Copies that were made from an asset, such as OpenGL
+ * textures, are not updated.
+ * @author Jonathon
+ */
+public class AssetWatcher implements Closeable {
+    
+    private final AssetManager assetManager;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Map<Path, ScheduledFuture<?>> scheduled = new HashMap<>();
+    private final ScheduledExecutorService debouncer;
+    private final long debounceMillis;
+    private final Thread thread;
+    
+    AssetWatcher(AssetManager assetManager, File root, long debounceMillis) 
+            throws IOException {
+        this.assetManager = assetManager;
+        this.debounceMillis = debounceMillis;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        registerAll(root.toPath());
+        this.debouncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "AssetWatcher debouncer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "AssetWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Registers a directory and all of its subdirectories.
+     */
+    private void registerAll(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, 
+                    BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService, 
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                synchronized(directories) {
+                    directories.put(key, dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+    
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+            Path dir;
+            synchronized(directories) {
+                dir = directories.get(key);
+            }
+            if (dir != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        continue;
+                    }
+                    Path changed = dir.resolve((Path)event.context());
+                    if (Files.isDirectory(changed)) {
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                            try {
+                                registerAll(changed);
+                            } catch (IOException ex) {
+                                ErrorLogger.println("Could not watch " + changed + ": " + ex);
+                            }
+                        }
+                    } else {
+                        schedule(changed);
+                    }
+                }
+            }
+            if (!key.reset()) {
+                synchronized(directories) {
+                    directories.remove(key);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Reloads a file once it has not changed for the debounce delay.
+     */
+    private void schedule(final Path file) {
+        synchronized(scheduled) {
+            ScheduledFuture<?> previous = scheduled.get(file);
+            if (previous != null) {
+                previous.cancel(false);
+            }
+            scheduled.put(file, debouncer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized(scheduled) {
+                        scheduled.remove(file);
+                    }
+                    reload(file);
+                }
+            }, debounceMillis, TimeUnit.MILLISECONDS));
+        }
+    }
+    
+    /**
+     * Reloads every asset that was loaded from the given file.
+     */
+    private void reload(Path file) {
+        final Path changed = file.toAbsolutePath().normalize();
+        for (final AssetLoader<?> loader : assetManager.getAssetLoaders()) {
+            for (Map.Entry<String, AssetSource> entry : loader.getSources().entrySet()) {
+                File source = entry.getValue().getFile();
+                if (source == null || 
+                        !source.toPath().toAbsolutePath().normalize().equals(changed)) {
+                    continue;
+                }
+                final String key = entry.getKey();
+                assetManager.getLoadingExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (loader.reload(key)) {
+                            InfoLogger.println("Reloaded asset " + key + " from " + changed);
+                        }
+                    }
+                });
+            }
+        }
+    }
+    
+    /**
+     * Gets how long a file must stay unchanged before it is reloaded.
+     * @return the debounce delay in milliseconds.
+     */
+    public long getDebounceMillis() {
+        return debounceMillis;
+    }
+
+    /**
+     * Stops watching the asset directories.
+     * @throws IOException if the watch service could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        debouncer.shutdownNow();
+        watchService.close();
+    }
+}
@@ -0,0 +1,280 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+import bropals.lib.simplegame.logger.ErrorLogger;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Writes saves on a background thread so that saving does not stop the
+ * game loop.
+ * <p>
+ * A save is started on the game thread with a snapshot of the state to
+ * save. The snapshot must be a copy that the game will not change, such as
+ * a list of value objects, and taking it is the only part of the save that
+ * happens on the game thread. Objects with a <code>BinaryCodec</code> are 
+ * copied by a {@link Snapshotter} and encoded on the writer thread, so the
+ * copy should be cheap, such as sharing the parts of the object that are 
+ * never changed in place. The snapshot is then written to a temporary file on the writer thread, 
+ * forced to the disk and renamed over the save file, so the save file is
+ * always either the old save or the new one.
+ * <p>
+ * Listeners are told when a save finishes through the callback executor.
+ * Use <code>GameStateRunner.getGameThreadExecutor()</code> to have them
+ * called on the game thread at the start of the next update. Saves are
+ * written one at a time, in the order they were started.
+ * @author Jonathon
+ */
+public class AsyncSaveService {
+    
+    /**
+     * Writes a snapshot to a stream.
+     * @param <S> the type of snapshot
+     */
+    public interface SaveWriter<S> {
+        
+        /**
+         * Writes the snapshot. Called on the writer thread.
+         * @param snapshot the snapshot to write.
+         * @param out the stream of the temporary file.
+         * @throws IOException if the snapshot could not be written.
+         */
+        public void write(S snapshot, DataOutputStream out) throws IOException;
+    }
+    
+    /**
+     * Copies an object so that it can be encoded while the game keeps 
+     * changing the original.
+     * @param <T> the type of object
+     */
+    public interface Snapshotter<T> {
+        
+        /**
+         * Copies the object. Called on the game thread, so it should only 
+         * copy what the game changes in place; an object that is never 
+         * changed can be returned as it is.
+         * @param object the object to copy.
+         * @return a copy that the game will not change.
+         */
+        public T snapshot(T object);
+    }
+    
+    private final Executor callbackExecutor;
+    private final ExecutorService writer;
+    
+    /**
+     * Makes a save service that tells listeners about finished saves
+     * with the given executor.
+     * @param callbackExecutor the executor listeners are called with.
+     */
+    public AsyncSaveService(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+        this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "AsyncSaveService writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    
+    /**
+     * Starts writing a snapshot to a file.
+     * @param <S> the type of snapshot
+     * @param snapshot a copy of the state to save, which must not change.
+     * @param file the file to save to.
+     * @param saveWriter writes the snapshot.
+     * @param listener told when the save finishes, or <code>null</code>.
+     * @return a future that completes with the file once it has been saved,
+     * or completes exceptionally if it could not be saved.
+     */
+    public <S> CompletableFuture<File> save(final S snapshot, final File file, 
+            final SaveWriter<? super S> saveWriter, SaveListener listener) {
+        return notify(CompletableFuture.supplyAsync(new Supplier<File>() {
+            @Override
+            public File get() {
+                try {
+                    writeAtomically(snapshot, file, saveWriter);
+                    return file;
+                } catch (IOException ex) {
+                    throw new CompletionException(ex);
+                }
+            }
+        }, writer), file, listener);
+    }
+    
+    /**
+     * Takes a snapshot of an object on this thread, then encodes it with its
+     * codec and writes the bytes to a file in the background.
+     * @param <T> the type of object
+     * @param object the object to save.
+     * @param snapshotter copies the object on this thread.
+     * @param codec the codec of the object, used on the writer thread.
+     * @param file the file to save to.
+     * @param listener told when the save finishes, or <code>null</code>.
+     * @return a future that completes with the file once it has been saved,
+     * or completes exceptionally if it could not be saved.
+     */
+    public <T> CompletableFuture<File> save(T object, Snapshotter<T> snapshotter,
+            final BinaryCodec<T> codec, File file, SaveListener listener) {
+        return save(snapshotter.snapshot(object), file, new SaveWriter<T>() {
+            @Override
+            public void write(T snapshot, DataOutputStream out) throws IOException {
+                codec.write(snapshot, out);
+            }
+        }, listener);
+    }
+    
+    /**
+     * Encodes the objects marked as changed in an IncrementalSaver on this
+     * thread, then appends them to its log in the background. The saver
+     * must not be saved from any other thread at the same time. Changes
+     * that could not be appended are kept for the saver's next save.
+     * @param saver the incremental saver.
+     * @param file the file reported to the listener, such as the base name
+     * of the save.
+     * @param listener told when the save finishes, or <code>null</code>.
+     * @return a future that completes with the file once the changes have
+     * been appended, or completes exceptionally if they could not be.
+     */
+    public CompletableFuture<File> save(final IncrementalSaver<?> saver, final File file, 
+            SaveListener listener) {
+        final Map<Long, byte[]> changes = saver.encodeDirty();
+        CompletableFuture<File> future;
+        try {
+            future = CompletableFuture.supplyAsync(new Supplier<File>() {
+                @Override
+                public File get() {
+                    try {
+                        saver.append(changes);
+                        return file;
+                    } catch (IOException ex) {
+                        throw new CompletionException(ex);
+                    }
+                }
+            }, writer);
+        } catch (RejectedExecutionException ex) {
+            saver.restore(changes);
+            throw ex;
+        }
+        return notify(future, file, listener);
+    }
+    
+    /**
+     * Writes a snapshot to a temporary file next to the save file, forces it
+     * to the disk and renames it over the save file.
+     */
+    private static <S> void writeAtomically(S snapshot, File file, 
+            SaveWriter<? super S> saveWriter) throws IOException {
+        File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp.toPath(), 
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        Channels.newOutputStream(channel)));
+                saveWriter.write(snapshot, out);
+                out.flush();
+                channel.force(true);
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), 
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(temp.toPath());
+            throw ex;
+        }
+    }
+    
+    /**
+     * Tells the listener how a save went with the callback executor.
+     */
+    private CompletableFuture<File> notify(CompletableFuture<File> save, 
+            final File file, final SaveListener listener) {
+        if (listener == null) {
+            return save;
+        }
+        return save.whenComplete(new BiConsumer<File, Throwable>() {
+            @Override
+            public void accept(File saved, final Throwable failure) {
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (failure == null) {
+                            listener.saveCompleted(file);
+                        } else {
+                            Throwable cause = failure instanceof CompletionException ? 
+                                    failure.getCause() : failure;
+                            listener.saveFailed(file, cause instanceof IOException ? 
+                                    (IOException)cause : new IOException(cause));
+                        }
+                    }
+                });
+            }
+        });
+    }
+    
+    /**
+     * Stops accepting saves and waits for the saves that were already 
+     * started to be written. Call this before the game exits, since the
+     * writer thread does not keep the program running.
+     * @param timeoutMillis the longest time to wait, in milliseconds.
+     * @return <code>true</code> if every save was written in time.
+     */
+    public boolean shutdown(long timeoutMillis) {
+        writer.shutdown();
+        try {
+            return writer.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            ErrorLogger.println("Interrupted while waiting for saves to finish");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,579 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves and loads the fields of a class that are marked with 
+ * {@link BinaryField}, without having to write a 
+ * <code>readFile()</code> and <code>writeFile()</code> by hand.
+ * <p>
+ * A codec is made once per class with <code>forClass</code>. The class is
+ * only looked at with reflection while the codec is being made; reading and
+ * writing go through MethodHandles to the fields.
+ * <p>
+ * Each field is stored as a varint key, made of its tag and how its value
+ * is stored, followed by its value. Integers are stored as zig-zag varints,
+ * so small numbers take one byte, and floats and doubles are stored as 4
+ * and 8 bytes. Strings, arrays, enums and nested objects are stored with
+ * their length first, so readers that do not know a tag can skip it. The
+ * fields end with a key of 0. Fields that are <code>null</code> are not
+ * stored.
+ * <p>
+ * The supported field types are the primitives, String, byte[], int[],
+ * float[], enums and classes that have BinaryFields of their own.
+ * @author Jonathon
+ * @param <T> the type of object this codec saves and loads
+ */
+public class BinaryCodec<T> {
+    
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+    private static final int FIXED32 = 5;
+    
+    private static final ClassValue<BinaryCodec<?>> CODECS = new ClassValue<BinaryCodec<?>>() {
+        @Override
+        protected BinaryCodec<?> computeValue(Class<?> type) {
+            return new BinaryCodec<>(type);
+        }
+    };
+    
+    private final Class<T> type;
+    private final FieldCodec[] fields;
+    private final Map<Integer, FieldCodec> fieldsByTag = new HashMap<>();
+    private final MethodHandle constructor;
+    
+    /**
+     * Gets the codec for a class, making it the first time it is needed.
+     * @param <T> the type of object the codec saves and loads
+     * @param type the class
+     * @return the codec for the class.
+     * @throws IllegalArgumentException if a BinaryField has an unsupported
+     * type, a tag that is not positive, or a tag that is already used.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> BinaryCodec<T> forClass(Class<T> type) {
+        return (BinaryCodec<T>)CODECS.get(type);
+    }
+    
+    private BinaryCodec(Class<T> type) {
+        this.type = type;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        List<FieldCodec> found = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                BinaryField annotation = field.getAnnotation(BinaryField.class);
+                if (annotation == null) {
+                    continue;
+                }
+                if (Modifier.isStatic(field.getModifiers()) || 
+                        Modifier.isFinal(field.getModifiers())) {
+                    throw new IllegalArgumentException("BinaryField " + field + 
+                            " can not be static or final");
+                }
+                int tag = annotation.value();
+                if (tag <= 0) {
+                    throw new IllegalArgumentException("BinaryField " + field + 
+                            " must have a positive tag");
+                }
+                if (fieldsByTag.containsKey(tag)) {
+                    throw new IllegalArgumentException("BinaryField " + field + 
+                            " uses tag " + tag + ", which is already used by " + 
+                            fieldsByTag.get(tag).name);
+                }
+                field.setAccessible(true);
+                FieldCodec codec;
+                try {
+                    codec = fieldCodec(field, tag, lookup.unreflectGetter(field), 
+                            lookup.unreflectSetter(field));
+                } catch (IllegalAccessException ex) {
+                    throw new IllegalArgumentException("Can not access BinaryField " + field, ex);
+                }
+                found.add(codec);
+                fieldsByTag.put(tag, codec);
+            }
+        }
+        this.fields = found.toArray(new FieldCodec[found.size()]);
+        MethodHandle noArgs = null;
+        try {
+            Constructor<T> c = type.getDeclaredConstructor();
+            c.setAccessible(true);
+            noArgs = lookup.unreflectConstructor(c)
+                    .asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            // objects can only be read into existing instances
+        }
+        this.constructor = noArgs;
+    }
+    
+    /**
+     * Gets the class this codec saves and loads.
+     * @return the class of this codec.
+     */
+    public Class<T> getType() {
+        return type;
+    }
+    
+    /**
+     * Writes the BinaryFields of an object.
+     * @param object the object to write.
+     * @param out where to write the object.
+     * @throws IOException if the object could not be written.
+     */
+    public void write(T object, DataOutput out) throws IOException {
+        try {
+            for (FieldCodec field : fields) {
+                field.write(object, out);
+            }
+        } catch (IOException | RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IOException(ex);
+        }
+        writeVarInt(out, 0);
+    }
+    
+    /**
+     * Reads an object, making it with its no-argument constructor.
+     * @param in where to read the object from.
+     * @return the read object.
+     * @throws IOException if the object could not be read.
+     * @throws IllegalStateException if the class has no constructor without
+     * arguments.
+     */
+    @SuppressWarnings("unchecked")
+    public T read(DataInput in) throws IOException {
+        if (constructor == null) {
+            throw new IllegalStateException(type.getName() + 
+                    " has no constructor without arguments; read into an instance instead");
+        }
+        T object;
+        try {
+            object = (T)constructor.invokeExact();
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IOException("Could not make a " + type.getName(), ex);
+        }
+        return read(in, object);
+    }
+    
+    /**
+     * Reads the BinaryFields of an object into an existing instance, such as
+     * an entity that was made with its GameWorld. Fields that were not 
+     * stored keep their current values.
+     * @param in where to read the fields from.
+     * @param object the object to set the fields of.
+     * @return the given object.
+     * @throws IOException if the fields could not be read.
+     */
+    public T read(DataInput in, T object) throws IOException {
+        try {
+            int key;
+            while ((key = readVarInt(in)) != 0) {
+                FieldCodec field = fieldsByTag.get(key >>> 3);
+                if (field == null || field.wireType != (key & 7)) {
+                    skip(in, key & 7);
+                } else {
+                    field.read(object, in);
+                }
+            }
+        } catch (IOException | RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IOException(ex);
+        }
+        return object;
+    }
+    
+    /**
+     * Writes the BinaryFields of an object into an array.
+     * @param object the object to write.
+     * @return the bytes of the object.
+     */
+    public byte[] encode(T object) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            write(object, new DataOutputStream(bytes));
+        } catch (IOException ex) {
+            // a ByteArrayOutputStream does not throw IOExceptions
+            throw new IllegalStateException(ex);
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Reads an object from an array made by <code>encode</code>.
+     * @param bytes the bytes of the object.
+     * @return the read object.
+     * @throws IOException if the bytes are not a valid object.
+     */
+    public T decode(byte[] bytes) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+    
+    private static void skip(DataInput in, int wireType) throws IOException {
+        switch (wireType) {
+            case VARINT: readVarLong(in); break;
+            case FIXED64: in.skipBytes(8); break;
+            case FIXED32: in.skipBytes(4); break;
+            case LENGTH_DELIMITED: 
+                int length = readVarInt(in);
+                while (length > 0) {
+                    int skipped = in.skipBytes(length);
+                    if (skipped <= 0) {
+                        in.readByte();
+                        skipped = 1;
+                    }
+                    length -= skipped;
+                }
+                break;
+            default: throw new IOException("Unknown wire type " + wireType);
+        }
+    }
+    
+    /**
+     * Writes an unsigned variable-length integer, 7 bits per byte.
+     * @param out where to write the integer.
+     * @param value the integer to write.
+     * @throws IOException if the integer could not be written.
+     */
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+    
+    /**
+     * Writes an unsigned variable-length long, 7 bits per byte.
+     * @param out where to write the long.
+     * @param value the long to write.
+     * @throws IOException if the long could not be written.
+     */
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+    
+    /**
+     * Reads an unsigned variable-length integer.
+     * @param in where to read the integer from.
+     * @return the read integer.
+     * @throws IOException if the integer could not be read.
+     */
+    public static int readVarInt(DataInput in) throws IOException {
+        return (int)readVarLong(in);
+    }
+    
+    /**
+     * Reads an unsigned variable-length long.
+     * @param in where to read the long from.
+     * @return the read long.
+     * @throws IOException if the long could not be read or is too long.
+     */
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+    
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+    
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+    
+    private static byte[] readBytes(DataInput in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+    
+    /**
+     * Makes the codec for one field, with its getter and setter adapted to
+     * exact types so they can be called with <code>invokeExact</code>.
+     */
+    private static FieldCodec fieldCodec(Field field, int tag, MethodHandle getter, 
+            MethodHandle setter) {
+        final Class<?> t = field.getType();
+        final MethodHandle get = getter.asType(MethodType.methodType(
+                t.isPrimitive() ? t : Object.class, Object.class));
+        final MethodHandle set = setter.asType(MethodType.methodType(
+                void.class, Object.class, t.isPrimitive() ? t : Object.class));
+        String name = field.toString();
+        if (t == boolean.class) {
+            return new FieldCodec(name, tag, VARINT) {
+                void write(Object o, DataOutput out) throws Throwable {
+                    key(out);
+                    out.writeByte((boolean)get.invokeExact(o) ? 1 : 0);
+                }
+                void read(Object o, DataInput in) throws Throwable {
+                    set.invokeExact(o, readVarLong(in) != 0);
+                }
+            };
+        } else if (t == byte.class || t == short.class || t == char.class || 
+                t == int.class || t == long.class) {
+            return new FieldCodec(name, tag, VARINT) {
+                void write(Object o, DataOutput out) throws Throwable {
+                    long value;
+                    if (t == byte.class) {
+                        value = (byte)get.invokeExact(o);
+                    } else if (t == short.class) {
+                        value = (short)get.invokeExact(o);
+                    } else if (t == char.class) {
+                        value = (char)get.invokeExact(o);
+                    } else if (t == int.class) {
+                        value = (int)get.invokeExact(o);
+                    } else {
+                        value = (long)get.invokeExact(o);
+                    }
+                    key(out);
+                    writeVarLong(out, zigZag(value));
+                }
+                void read(Object o, DataInput in) throws Throwable {
+                    long value = unZigZag(readVarLong(in));
+                    if (t == byte.class) {
+                        set.invokeExact(o, (byte)value);
+                    } else if (t == short.class) {
+                        set.invokeExact(o, (short)value);
+                    } else if (t == char.class) {
+                        set.invokeExact(o, (char)value);
+                    } else if (t == int.class) {
+                        set.invokeExact(o, (int)value);
+                    } else {
+                        set.invokeExact(o, value);
+                    }
+                }
+            };
+        } else if (t == float.class) {
+            return new FieldCodec(name, tag, FIXED32) {
+                void write(Object o, DataOutput out) throws Throwable {
+                    key(out);
+                    out.writeFloat((float)get.invokeExact(o));
+                }
+                void read(Object o, DataInput in) throws Throwable {
+                    set.invokeExact(o, in.readFloat());
+                }
+            };
+        } else if (t == double.class) {
+            return new FieldCodec(name, tag, FIXED64) {
+                void write(Object o, DataOutput out) throws Throwable {
+                    key(out);
+                    out.writeDouble((double)get.invokeExact(o));
+                }
+                void read(Object o, DataInput in) throws Throwable {
+                    set.invokeExact(o, in.readDouble());
+                }
+            };
+        } else if (t.isPrimitive()) {
+            throw new IllegalArgumentException("Unsupported BinaryField type " + t + ": " + field);
+        }
+        
+        final Encoder encoder = encoder(t, field);
+        return new FieldCodec(name, tag, LENGTH_DELIMITED) {
+            void write(Object o, DataOutput out) throws Throwable {
+                Object value = (Object)get.invokeExact(o);
+                if (value != null) {
+                    key(out);
+                    writeBytes(out, encoder.encode(value));
+                }
+            }
+            void read(Object o, DataInput in) throws Throwable {
+                set.invokeExact(o, encoder.decode(readBytes(in)));
+            }
+        };
+    }
+    
+    /**
+     * Makes the encoder of a field that is stored with its length.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Encoder encoder(final Class<?> t, Field field) {
+        if (t == String.class) {
+            return new Encoder() {
+                byte[] encode(Object value) {
+                    return ((String)value).getBytes(StandardCharsets.UTF_8);
+                }
+                Object decode(byte[] bytes) {
+                    return new String(bytes, StandardCharsets.UTF_8);
+                }
+            };
+        } else if (t == byte[].class) {
+            return new Encoder() {
+                byte[] encode(Object value) {
+                    return (byte[])value;
+                }
+                Object decode(byte[] bytes) {
+                    return bytes;
+                }
+            };
+        } else if (t == int[].class) {
+            return new Encoder() {
+                byte[] encode(Object value) throws IOException {
+                    int[] array = (int[])value;
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream(array.length + 4);
+                    DataOutputStream out = new DataOutputStream(bytes);
+                    for (int i : array) {
+                        writeVarLong(out, zigZag(i));
+                    }
+                    return bytes.toByteArray();
+                }
+                Object decode(byte[] bytes) throws IOException {
+                    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+                    int[] array = new int[bytes.length];
+                    int count = 0;
+                    while (in.available() > 0) {
+                        array[count++] = (int)unZigZag(readVarLong(in));
+                    }
+                    return Arrays.copyOf(array, count);
+                }
+            };
+        } else if (t == float[].class) {
+            return new Encoder() {
+                byte[] encode(Object value) {
+                    float[] array = (float[])value;
+                    ByteBuffer bytes = ByteBuffer.allocate(array.length * 4);
+                    bytes.asFloatBuffer().put(array);
+                    return bytes.array();
+                }
+                Object decode(byte[] bytes) {
+                    float[] array = new float[bytes.length / 4];
+                    ByteBuffer.wrap(bytes).asFloatBuffer().get(array);
+                    return array;
+                }
+            };
+        } else if (t.isEnum()) {
+            return new Encoder() {
+                byte[] encode(Object value) {
+                    return ((Enum)value).name().getBytes(StandardCharsets.UTF_8);
+                }
+                Object decode(byte[] bytes) throws IOException {
+                    String name = new String(bytes, StandardCharsets.UTF_8);
+                    try {
+                        return Enum.valueOf((Class<Enum>)t, name);
+                    } catch (IllegalArgumentException ex) {
+                        throw new IOException("Unknown " + t.getSimpleName() + " " + name);
+                    }
+                }
+            };
+        } else if (hasBinaryFields(t)) {
+            // the nested codec is found when it is first used, so that a
+            // class can have fields of its own type
+            return new Encoder() {
+                byte[] encode(Object value) {
+                    return forClass((Class)t).encode(value);
+                }
+                Object decode(byte[] bytes) throws IOException {
+                    return forClass(t).decode(bytes);
+                }
+            };
+        }
+        throw new IllegalArgumentException("Unsupported BinaryField type " + t + ": " + field);
+    }
+    
+    private static boolean hasBinaryFields(Class<?> type) {
+        if (type.isArray() || type.isInterface()) {
+            return false;
+        }
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (field.isAnnotationPresent(BinaryField.class)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Reads and writes one field.
+     */
+    private static abstract class FieldCodec {
+        
+        private final String name;
+        private final int wireType;
+        private final int key;
+
+        FieldCodec(String name, int tag, int wireType) {
+            this.name = name;
+            this.wireType = wireType;
+            this.key = (tag << 3) | wireType;
+        }
+        
+        void key(DataOutput out) throws IOException {
+            writeVarInt(out, key);
+        }
+        
+        abstract void write(Object object, DataOutput out) throws Throwable;
+        
+        abstract void read(Object object, DataInput in) throws Throwable;
+    }
+    
+    /**
+     * Turns the value of a field that is stored with its length into bytes
+     * and back.
+     */
+    private static abstract class Encoder {
+        
+        abstract byte[] encode(Object value) throws IOException;
+        
+        abstract Object decode(byte[] bytes) throws IOException;
+    }
+}
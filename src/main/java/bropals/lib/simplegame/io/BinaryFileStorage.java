@@ -28,8 +28,12 @@ import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import static bropals.lib.simplegame.logger.ErrorLogger.*;
+import java.io.BufferedInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
 
 /**
  * Reads and writes to files via a binary stream.
@@ -39,6 +43,11 @@ import java.io.IOException;
  * {@link java.io.DataOutputStream DataOutputStream} because one should extend
  * and override the <code>readFile()</code> and <code>writeFile()</code> methods 
  * to better encapsulate what is being read and written.
+ * <p>
+ * If compression is turned on, files are written with a
+ * {@link BlockCompressedOutputStream}. Files are read the same way whether
+ * or not they are compressed, since compressed files are recognized by
+ * their header.
  * 
  * @author Jonathon
  * @param <T> the type of object that is being read and written to a binary file.
@@ -47,6 +56,8 @@ public abstract class BinaryFileStorage<T> {
     
     private DataInputStream input = null;
     private DataOutputStream output = null;
+    private boolean compressed = false;
+    private int compressionLevel = Deflater.BEST_SPEED;
     
     /**
      * Reads a binary file and interprets it as an object.
@@ -63,6 +74,43 @@ public abstract class BinaryFileStorage<T> {
      */
     public abstract void writeFile(T object, File file);
     
+    /**
+     * Sets whether or not files are compressed when they are written. 
+     * Compressed files can not be appended to.
+     * @param compressed <code>true</code> to compress written files.
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+    
+    /**
+     * Checks if files are compressed when they are written.
+     * @return <code>true</code> if written files are compressed.
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+    
+    /**
+     * Sets the Deflater level compressed files are written with. The default 
+     * is <code>Deflater.BEST_SPEED</code>.
+     * @param level the compression level, from 0 to 9.
+     */
+    public void setCompressionLevel(int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.compressionLevel = level;
+    }
+    
+    /**
+     * Gets the Deflater level compressed files are written with.
+     * @return the compression level.
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+    
     /**
      * Opens binary input with the specified file so that this object can
      * use its read functions.
@@ -70,10 +118,14 @@ public abstract class BinaryFileStorage<T> {
      */
     protected void openInput(File file) {
         try {
-            input = new DataInputStream(
+            InputStream in = new BufferedInputStream(
                     Files.newInputStream(file.toPath(), 
                     StandardOpenOption.READ)
             );
+            if (BlockCompressedInputStream.isCompressed(in)) {
+                in = new BlockCompressedInputStream(in);
+            }
+            input = new DataInputStream(in);
         } catch(Exception e) {
             println("Unable to open binary input steam with " + file + ": " + e);
         }
@@ -86,12 +138,20 @@ public abstract class BinaryFileStorage<T> {
      * @param append whether or not the file should be appended to.
      */
     protected void openOutput(File file, boolean append) {
+        if (compressed && append) {
+            println("Unable to open binary output stream with " + file 
+                    + ": compressed files can not be appended to");
+            return;
+        }
         try {
-            output = new DataOutputStream(
-                    Files.newOutputStream(file.toPath(),
-                            StandardOpenOption.WRITE,
-                            append ? StandardOpenOption.APPEND : StandardOpenOption.WRITE)
-                    );
+            OutputStream out = Files.newOutputStream(file.toPath(),
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                            append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+            if (compressed) {
+                out = new BlockCompressedOutputStream(out, 
+                        BlockCompressedOutputStream.DEFAULT_BLOCK_SIZE, compressionLevel);
+            }
+            output = new DataOutputStream(out);
         } catch(Exception e) {
             println("Unable to open binary output steam with " + file + ": " + e);
         }
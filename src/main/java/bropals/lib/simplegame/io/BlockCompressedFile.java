@@ -0,0 +1,224 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+
+/**
+ * Reads any part of a file written by a {@link BlockCompressedOutputStream}
+ * by decompressing only the blocks that hold it.
+ * <p>
+ * The block index at the end of the file is read when it is opened, so
+ * finding the block that holds an uncompressed position is a binary search.
+ * The last block that was decompressed is kept, so reading through a file 
+ * in small pieces decompresses each block once.
+ * @author Jonathon
+ */
+public class BlockCompressedFile implements Closeable {
+    
+    private final FileChannel channel;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final long[] starts;
+    private final long length;
+    private final Inflater inflater = new Inflater();
+    private final byte[] block;
+    private byte[] compressed = new byte[0];
+    private int cachedBlock = -1;
+    
+    /**
+     * Opens a block compressed file and reads its block index.
+     * @param file the file to open.
+     * @throws IOException if the file could not be read or is not a
+     * finished block compressed file.
+     */
+    public BlockCompressedFile(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = readAt(0, 12);
+            if (header.getInt() != BlockCompressedOutputStream.MAGIC) {
+                throw new IOException(file + " is not a block compressed file");
+            }
+            int version = header.getInt();
+            if (version != BlockCompressedOutputStream.VERSION) {
+                throw new IOException("Unsupported block compressed file version " + version);
+            }
+            block = new byte[header.getInt()];
+            
+            ByteBuffer footer = readAt(channel.size() - 12, 12);
+            long indexOffset = footer.getLong();
+            if (footer.getInt() != BlockCompressedOutputStream.MAGIC) {
+                throw new IOException(file + " has no block index; it may not have been closed");
+            }
+            int count = readAt(indexOffset, 4).getInt();
+            ByteBuffer index = readAt(indexOffset + 4, count * 12);
+            offsets = new long[count];
+            lengths = new int[count];
+            starts = new long[count];
+            long total = 0;
+            for (int i=0; i<count; i++) {
+                offsets[i] = index.getLong();
+                lengths[i] = index.getInt();
+                starts[i] = total;
+                total += lengths[i];
+            }
+            length = total;
+        } catch(IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    private ByteBuffer readAt(long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+    
+    /**
+     * Gets the uncompressed length of the file.
+     * @return the number of uncompressed bytes.
+     */
+    public long getLength() {
+        return length;
+    }
+    
+    /**
+     * Gets the number of blocks in the file.
+     * @return the number of blocks.
+     */
+    public int getBlockCount() {
+        return offsets.length;
+    }
+    
+    /**
+     * Gets the block that holds an uncompressed position.
+     * @param position the uncompressed position.
+     * @return the index of the block.
+     */
+    public int getBlockAt(long position) {
+        if (position < 0 || position >= length) {
+            throw new IndexOutOfBoundsException("Position " + position 
+                    + " is outside of the file's " + length + " bytes");
+        }
+        int i = Arrays.binarySearch(starts, position);
+        return i >= 0 ? i : -i - 2;
+    }
+    
+    /**
+     * Makes sure the given block is the one that is decompressed.
+     */
+    private void loadBlock(int index) throws IOException {
+        if (cachedBlock == index) {
+            return;
+        }
+        cachedBlock = -1;
+        ByteBuffer header = readAt(offsets[index], 9);
+        byte kind = header.get();
+        int stored = header.getInt();
+        int raw = header.getInt();
+        if (raw != lengths[index] || raw > block.length || stored < 0) {
+            throw new IOException("Corrupt block header for block " + index);
+        }
+        if (kind == BlockCompressedOutputStream.STORED) {
+            readAt(offsets[index] + 9, raw).get(block, 0, raw);
+        } else if (kind == BlockCompressedOutputStream.DEFLATED) {
+            if (compressed.length < stored) {
+                compressed = new byte[stored];
+            }
+            readAt(offsets[index] + 9, stored).get(compressed, 0, stored);
+            BlockCompressedInputStream.inflate(inflater, compressed, stored, block, raw);
+        } else {
+            throw new IOException("Unknown block kind " + kind);
+        }
+        cachedBlock = index;
+    }
+    
+    /**
+     * Reads uncompressed bytes starting at the given position.
+     * @param position the uncompressed position to start reading at.
+     * @param b the array to read into.
+     * @param off the index in the array to start at.
+     * @param len the maximum number of bytes to read.
+     * @return the number of bytes read, or -1 if the position is at the
+     * end of the file.
+     * @throws IOException if the blocks could not be read.
+     */
+    public synchronized int read(long position, byte[] b, int off, int len) throws IOException {
+        if (position >= length) {
+            return -1;
+        }
+        int done = 0;
+        while (done < len && position < length) {
+            int index = getBlockAt(position);
+            loadBlock(index);
+            int inBlock = (int)(position - starts[index]);
+            int count = Math.min(len - done, lengths[index] - inBlock);
+            System.arraycopy(block, inBlock, b, off + done, count);
+            done += count;
+            position += count;
+        }
+        return done;
+    }
+    
+    /**
+     * Reads exactly the given number of uncompressed bytes.
+     * @param position the uncompressed position to start reading at.
+     * @param len the number of bytes to read.
+     * @return the bytes that were read.
+     * @throws IOException if the blocks could not be read or the file
+     * ends before that many bytes.
+     */
+    public byte[] read(long position, int len) throws IOException {
+        byte[] bytes = new byte[len];
+        if (len > 0 && read(position, bytes, 0, len) != len) {
+            throw new EOFException();
+        }
+        return bytes;
+    }
+
+    /**
+     * Closes the file.
+     * @throws IOException if the file could not be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a stream written by a {@link BlockCompressedOutputStream} from the
+ * start, decompressing one block at a time.
+ * <p>
+ * Use {@link BlockCompressedFile} to read from the middle of a compressed 
+ * file without decompressing the blocks before it.
+ * @author Jonathon
+ */
+public class BlockCompressedInputStream extends InputStream {
+    
+    private final DataInputStream data;
+    private final Inflater inflater = new Inflater();
+    private final byte[] block;
+    private byte[] compressed;
+    private int length = 0;
+    private int position = 0;
+    private boolean ended = false;
+    
+    /**
+     * Makes a stream that reads the compressed data from the given stream.
+     * @param in the stream to read the compressed data from.
+     * @throws IOException if the header could not be read or is not the
+     * header of a block compressed stream.
+     */
+    public BlockCompressedInputStream(InputStream in) throws IOException {
+        this.data = new DataInputStream(in);
+        if (data.readInt() != BlockCompressedOutputStream.MAGIC) {
+            throw new IOException("Not a block compressed stream");
+        }
+        int version = data.readInt();
+        if (version != BlockCompressedOutputStream.VERSION) {
+            throw new IOException("Unsupported block compressed stream version " + version);
+        }
+        int blockSize = data.readInt();
+        if (blockSize <= 0) {
+            throw new IOException("Invalid block size " + blockSize);
+        }
+        block = new byte[blockSize];
+        compressed = new byte[0];
+    }
+    
+    /**
+     * Checks if the given stream starts with the header of a block compressed
+     * stream, without consuming any of it. The stream must support
+     * <code>mark</code>, such as a <code>BufferedInputStream</code>.
+     * @param in the stream to check.
+     * @return <code>true</code> if the stream is block compressed.
+     * @throws IOException if the stream could not be read.
+     */
+    public static boolean isCompressed(InputStream in) throws IOException {
+        if (!in.markSupported()) {
+            throw new IllegalArgumentException("The stream must support mark");
+        }
+        in.mark(4);
+        try {
+            int magic = 0;
+            for (int i=0; i<4; i++) {
+                int b = in.read();
+                if (b == -1) {
+                    return false;
+                }
+                magic = (magic << 8) | b;
+            }
+            return magic == BlockCompressedOutputStream.MAGIC;
+        } finally {
+            in.reset();
+        }
+    }
+    
+    /**
+     * Reads and decompresses the next block.
+     * @return <code>false</code> if there are no more blocks.
+     */
+    private boolean nextBlock() throws IOException {
+        if (ended) {
+            return false;
+        }
+        byte kind = data.readByte();
+        if (kind == BlockCompressedOutputStream.END) {
+            ended = true;
+            return false;
+        }
+        int stored = data.readInt();
+        int raw = data.readInt();
+        if (raw < 0 || raw > block.length || stored < 0) {
+            throw new IOException("Corrupt block header");
+        }
+        if (kind == BlockCompressedOutputStream.STORED) {
+            data.readFully(block, 0, raw);
+        } else if (kind == BlockCompressedOutputStream.DEFLATED) {
+            if (compressed.length < stored) {
+                compressed = new byte[stored];
+            }
+            data.readFully(compressed, 0, stored);
+            inflate(inflater, compressed, stored, block, raw);
+        } else {
+            throw new IOException("Unknown block kind " + kind);
+        }
+        length = raw;
+        position = 0;
+        return true;
+    }
+    
+    /**
+     * Inflates a whole block.
+     */
+    static void inflate(Inflater inflater, byte[] src, int srcLength, 
+            byte[] dst, int dstLength) throws IOException {
+        inflater.reset();
+        inflater.setInput(src, 0, srcLength);
+        try {
+            int done = 0;
+            while (done < dstLength) {
+                int count = inflater.inflate(dst, done, dstLength - done);
+                if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new EOFException("Compressed block ended early");
+                }
+                done += count;
+            }
+        } catch(DataFormatException e) {
+            throw new IOException("Corrupt compressed block", e);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (position == length) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (position == length) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        int count = Math.min(len, length - position);
+        System.arraycopy(block, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        data.close();
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the bytes written to it in fixed-size blocks.
+ * <p>
+ * Each block is compressed on its own with a Deflater, so a 
+ * {@link BlockCompressedFile} can decompress any block without reading the
+ * ones before it, and a {@link BlockCompressedInputStream} can read the
+ * stream from the start. A block that does not get smaller is stored as it
+ * is. When the stream is closed, an index of where every block starts is
+ * written at the end.
+ * <p>
+ * The stream starts with the magic number <code>BPBC</code>, the format
+ * version and the block size. Each block is a kind byte (1 for stored, 2 
+ * for deflated), its stored length, its uncompressed length and its bytes.
+ * A kind of 0 ends the blocks, followed by the index: the number of blocks,
+ * then the offset and uncompressed length of each block. The last 12 bytes
+ * are the offset of the index and the magic number again.
+ * @author Jonathon
+ */
+public class BlockCompressedOutputStream extends FilterOutputStream {
+    
+    static final int MAGIC = 0x42504243; // BPBC
+    static final int VERSION = 1;
+    static final byte END = 0;
+    static final byte STORED = 1;
+    static final byte DEFLATED = 2;
+    
+    /**
+     * The default number of uncompressed bytes in a block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    
+    private final DataOutputStream data;
+    private final Deflater deflater;
+    private final byte[] block;
+    private byte[] compressed;
+    private int used = 0;
+    private long position = 0;
+    private long[] offsets = new long[16];
+    private int[] lengths = new int[16];
+    private int blockCount = 0;
+    private boolean closed = false;
+    
+    /**
+     * Makes a stream with the default block size that compresses quickly.
+     * @param out the stream to write the compressed data to.
+     * @throws IOException if the header could not be written.
+     */
+    public BlockCompressedOutputStream(OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_SIZE, Deflater.BEST_SPEED);
+    }
+    
+    /**
+     * Makes a stream with the given block size and compression level.
+     * Smaller blocks make random access faster; larger blocks compress
+     * better.
+     * @param out the stream to write the compressed data to.
+     * @param blockSize the number of uncompressed bytes in a block.
+     * @param level the Deflater compression level, from 
+     * <code>Deflater.BEST_SPEED</code> to <code>Deflater.BEST_COMPRESSION</code>.
+     * @throws IOException if the header could not be written.
+     */
+    public BlockCompressedOutputStream(OutputStream out, int blockSize, int level) 
+            throws IOException {
+        super(out);
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("The block size must be positive");
+        }
+        this.data = new DataOutputStream(out);
+        this.deflater = new Deflater(level);
+        this.block = new byte[blockSize];
+        this.compressed = new byte[blockSize];
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(blockSize);
+        position = 12;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (used == block.length) {
+            writeBlock();
+        }
+        block[used++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (used == block.length) {
+                writeBlock();
+            }
+            int count = Math.min(len, block.length - used);
+            System.arraycopy(b, off, block, used, count);
+            used += count;
+            off += count;
+            len -= count;
+        }
+    }
+    
+    /**
+     * Compresses the buffered bytes and writes them as a block.
+     */
+    private void writeBlock() throws IOException {
+        if (used == 0) {
+            return;
+        }
+        deflater.reset();
+        deflater.setInput(block, 0, used);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished() && length < used) {
+            if (length == compressed.length) {
+                break;
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        if (blockCount == offsets.length) {
+            offsets = Arrays.copyOf(offsets, blockCount * 2);
+            lengths = Arrays.copyOf(lengths, blockCount * 2);
+        }
+        offsets[blockCount] = position;
+        lengths[blockCount] = used;
+        blockCount++;
+        if (deflater.finished() && length < used) {
+            data.writeByte(DEFLATED);
+            data.writeInt(length);
+            data.writeInt(used);
+            data.write(compressed, 0, length);
+        } else {
+            data.writeByte(STORED);
+            data.writeInt(used);
+            data.writeInt(used);
+            data.write(block, 0, used);
+            length = used;
+        }
+        position += 9 + length;
+        used = 0;
+    }
+    
+    /**
+     * Writes the buffered bytes as a block. Flushing often makes the stream
+     * compress worse, since every flush ends a block.
+     * @throws IOException if the block could not be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        data.flush();
+    }
+
+    /**
+     * Writes the last block and the block index, and closes the stream.
+     * @throws IOException if the stream could not be finished.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writeBlock();
+            data.writeByte(END);
+            long indexOffset = position + 1;
+            data.writeInt(blockCount);
+            for (int i=0; i<blockCount; i++) {
+                data.writeLong(offsets[i]);
+                data.writeInt(lengths[i]);
+            }
+            data.writeLong(indexOffset);
+            data.writeInt(MAGIC);
+            data.flush();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+}
@@ -26,25 +26,197 @@ package bropals.lib.simplegame.io;
 
 import bropals.lib.simplegame.logger.ErrorLogger;
 import bropals.lib.simplegame.logger.InfoLogger;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import javax.imageio.ImageIO;
 
 /**
  * Loads BufferedImages.
+ * <p>
+ * By default, loaded images are converted to the pixel format of the
+ * default screen's GraphicsConfiguration. ImageIO often produces formats
+ * such as <code>TYPE_CUSTOM</code> or <code>TYPE_3BYTE_BGR</code> that Java2D
+ * can only draw with slow software loops; a compatible image can be
+ * drawn directly and cached in video memory by Java2D as a managed image.
+ * Every conversion is recorded in the conversion report.
+ * <p>
+ * If the loader has a {@link DecodedAssetCache}, decoded images are stored
+ * in it and are not decoded with ImageIO again the next time they are 
+ * loaded.
  * @author Jonathon
  */
 public class BufferedImageLoader extends AssetLoader<BufferedImage> {
 
+    private boolean convertToCompatible = true;
+    private volatile DecodedAssetCache decodedCache = null;
+    private final Map<String, String> conversions = 
+            Collections.synchronizedMap(new LinkedHashMap<String, String>());
+
     @Override
     public void loadAsset(String key, InputStream inputStream) {
         try {
-            add(key, (BufferedImage)ImageIO.read(inputStream));
+            BufferedImage image = decode(key, inputStream);
+            if (image == null) {
+                ErrorLogger.println("Could not load image " + key + 
+                        ": no ImageReader could read it");
+                return;
+            }
+            if (convertToCompatible) {
+                image = toCompatibleImage(key, image);
+            }
+            add(key, image);
             InfoLogger.println("Loaded an image with the key " + key);
         } catch(IOException e) {
             ErrorLogger.println("Could not load image " + key + ": " + e);
         }
     }
     
+    /**
+     * Decodes an image with ImageIO, or takes it from the decoded asset cache
+     * if there is one.
+     */
+    private BufferedImage decode(String key, InputStream inputStream) throws IOException {
+        DecodedAssetCache cache = decodedCache;
+        if (cache == null) {
+            return ImageIO.read(inputStream);
+        }
+        byte[] source = DecodedAssetCache.readFully(inputStream);
+        String hash = DecodedAssetCache.hash(source);
+        BufferedImage image = cache.getImage(hash);
+        if (image != null) {
+            InfoLogger.println("Using the decoded image cached for " + key);
+            return image;
+        }
+        image = ImageIO.read(new ByteArrayInputStream(source));
+        if (image != null) {
+            cache.putImage(hash, image);
+        }
+        return image;
+    }
+    
+    /**
+     * Sets the cache that decoded images are stored in and read from.
+     * @param decodedCache the cache, or <code>null</code> to always decode
+     * images with ImageIO.
+     */
+    public void setDecodedCache(DecodedAssetCache decodedCache) {
+        this.decodedCache = decodedCache;
+    }
+    
+    /**
+     * Gets the cache that decoded images are stored in and read from.
+     * @return the cache, or <code>null</code> if there is none.
+     */
+    public DecodedAssetCache getDecodedCache() {
+        return decodedCache;
+    }
+    
+    /**
+     * Copies the image into the format of the default screen's 
+     * GraphicsConfiguration, if it is not already in that format. Nothing
+     * is converted in a headless environment.
+     * @param key the key of the image, for the conversion report.
+     * @param image the image to convert.
+     * @return the compatible image, or the given image if it did not need
+     * to be converted.
+     */
+    private BufferedImage toCompatibleImage(String key, BufferedImage image) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return image;
+        }
+        GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDefaultConfiguration();
+        if (image.getColorModel().equals(gc.getColorModel(image.getTransparency()))) {
+            image.setAccelerationPriority(1.0f);
+            return image;
+        }
+        BufferedImage compatible = gc.createCompatibleImage(image.getWidth(), 
+                image.getHeight(), image.getTransparency());
+        Graphics2D g = compatible.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        compatible.setAccelerationPriority(1.0f);
+        String conversion = typeName(image.getType()) + " -> " + 
+                typeName(compatible.getType());
+        conversions.put(key, conversion);
+        InfoLogger.println("Converted image " + key + ": " + conversion);
+        return compatible;
+    }
+    
+    /**
+     * Sets whether or not loaded images are converted to the screen's
+     * compatible format. Only affects images loaded afterwards.
+     * @param convertToCompatible whether or not to convert loaded images.
+     */
+    public void setConvertToCompatible(boolean convertToCompatible) {
+        this.convertToCompatible = convertToCompatible;
+    }
+    
+    /**
+     * Returns <code>true</code> if loaded images are converted to the
+     * screen's compatible format.
+     * @return if loaded images are converted.
+     */
+    public boolean isConvertToCompatible() {
+        return convertToCompatible;
+    }
+    
+    /**
+     * Gets the format conversions that were made while loading images, in
+     * the order they were loaded. Each entry maps the key of an image to
+     * a description of its original and converted types, such as
+     * <code>TYPE_3BYTE_BGR -&gt; TYPE_INT_RGB</code>. Images that were
+     * already compatible are not included.
+     * @return a copy of the conversion report.
+     */
+    public Map<String, String> getConversionReport() {
+        synchronized(conversions) {
+            return new LinkedHashMap<>(conversions);
+        }
+    }
+    
+    /**
+     * Estimates the size of an image from the size of its pixel data.
+     * @param image the image
+     * @return the estimated size of the image in bytes.
+     */
+    @Override
+    protected long estimateSize(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long)buffer.getSize() * buffer.getNumBanks() * 
+                (DataBuffer.getDataTypeSize(buffer.getDataType()) / 8);
+    }
+    
+    /**
+     * Gets the name of a BufferedImage type constant.
+     * @param type the type of the image.
+     * @return the name of the type.
+     */
+    private static String typeName(int type) {
+        switch(type) {
+            case BufferedImage.TYPE_INT_RGB: return "TYPE_INT_RGB";
+            case BufferedImage.TYPE_INT_ARGB: return "TYPE_INT_ARGB";
+            case BufferedImage.TYPE_INT_ARGB_PRE: return "TYPE_INT_ARGB_PRE";
+            case BufferedImage.TYPE_INT_BGR: return "TYPE_INT_BGR";
+            case BufferedImage.TYPE_3BYTE_BGR: return "TYPE_3BYTE_BGR";
+            case BufferedImage.TYPE_4BYTE_ABGR: return "TYPE_4BYTE_ABGR";
+            case BufferedImage.TYPE_4BYTE_ABGR_PRE: return "TYPE_4BYTE_ABGR_PRE";
+            case BufferedImage.TYPE_USHORT_565_RGB: return "TYPE_USHORT_565_RGB";
+            case BufferedImage.TYPE_USHORT_555_RGB: return "TYPE_USHORT_555_RGB";
+            case BufferedImage.TYPE_BYTE_GRAY: return "TYPE_BYTE_GRAY";
+            case BufferedImage.TYPE_USHORT_GRAY: return "TYPE_USHORT_GRAY";
+            case BufferedImage.TYPE_BYTE_BINARY: return "TYPE_BYTE_BINARY";
+            case BufferedImage.TYPE_BYTE_INDEXED: return "TYPE_BYTE_INDEXED";
+            default: return "TYPE_CUSTOM";
+        }
+    }
 }
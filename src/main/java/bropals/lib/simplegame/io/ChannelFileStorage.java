@@ -0,0 +1,556 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes to files through a FileChannel and a reusable direct
+ * ByteBuffer.
+ * <p>
+ * This is used like {@link BinaryFileStorage}: extend it and override
+ * <code>readFile()</code> and <code>writeFile()</code>. Instead of making
+ * a system call for every value, values are gathered in the buffer and
+ * moved to or from the file a buffer at a time, and arrays of primitives
+ * can be read and written in bulk. Problems are reported by throwing an
+ * IOException rather than being logged, and reading past the end of the
+ * file throws an EOFException.
+ * <p>
+ * Values are stored big-endian and strings use the same format as
+ * <code>DataOutput.writeUTF</code>, so files written with a 
+ * BinaryFileStorage can be read with a ChannelFileStorage and the other 
+ * way around.
+ * 
+ * @author Jonathon
+ * @param <T> the type of object that is being read and written to a binary file.
+ */
+public abstract class ChannelFileStorage<T> {
+    
+    /**
+     * The size of the buffer if none is given, in bytes.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    
+    private final ByteBuffer buffer;
+    private FileChannel input = null;
+    private FileChannel output = null;
+    
+    /**
+     * Makes a storage with a buffer of the default size.
+     */
+    public ChannelFileStorage() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+    
+    /**
+     * Makes a storage with a buffer of the given size.
+     * @param bufferSize the size of the buffer in bytes. Must be at least 8.
+     */
+    public ChannelFileStorage(int bufferSize) {
+        if (bufferSize < 8) {
+            throw new IllegalArgumentException("The buffer must hold at least 8 bytes");
+        }
+        buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+    
+    /**
+     * Reads a binary file and interprets it as an object.
+     * @param file the file that is being read.
+     * @return the object created from the data stored in the file.
+     * @throws IOException if the file could not be read.
+     */
+    public abstract T readFile(File file) throws IOException;
+    
+    /**
+     * Writes the object to the given binary file. Whether or not this function
+     * overwrites the file is dependent on the implementation of it.
+     * @param object the object to write.
+     * @param file the binary file to write it to.
+     * @throws IOException if the file could not be written.
+     */
+    public abstract void writeFile(T object, File file) throws IOException;
+    
+    /**
+     * Opens the specified file for reading so that this object can use its
+     * read functions.
+     * @param file the file to read.
+     * @throws IOException if the file could not be opened.
+     */
+    protected void openInput(File file) throws IOException {
+        if (input != null || output != null) {
+            throw new IllegalStateException("A file is already open");
+        }
+        input = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        buffer.clear();
+        buffer.flip();
+    }
+    
+    /**
+     * Opens the specified file for writing so that this object can use its
+     * write functions. The file is created if it does not exist.
+     * @param file the file to write to.
+     * @param append whether or not to write after the existing contents of
+     * the file, instead of replacing them.
+     * @throws IOException if the file could not be opened.
+     */
+    protected void openOutput(File file, boolean append) throws IOException {
+        if (input != null || output != null) {
+            throw new IllegalStateException("A file is already open");
+        }
+        output = FileChannel.open(file.toPath(), 
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.clear();
+    }
+    
+    /**
+     * Closes the input file if it is open.
+     * @throws IOException if the file could not be closed.
+     */
+    protected void closeInput() throws IOException {
+        if (input != null) {
+            try {
+                input.close();
+            } finally {
+                input = null;
+            }
+        }
+    }
+    
+    /**
+     * Writes everything that is buffered and closes the output file if it 
+     * is open.
+     * @throws IOException if the buffered data could not be written or the
+     * file could not be closed.
+     */
+    protected void closeOutput() throws IOException {
+        if (output != null) {
+            try {
+                flush();
+            } finally {
+                output.close();
+                output = null;
+            }
+        }
+    }
+    
+    /**
+     * Writes everything that is buffered to the output file.
+     * @throws IOException if the data could not be written.
+     */
+    protected void flush() throws IOException {
+        checkOutput();
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+        buffer.clear();
+    }
+    
+    /**
+     * Returns <code>true</code> if there is more to read from the input file.
+     * @return if there is more to read.
+     * @throws IOException if the input file could not be read.
+     */
+    public boolean hasRemaining() throws IOException {
+        checkInput();
+        return buffer.hasRemaining() || input.position() < input.size();
+    }
+    
+    private void checkInput() {
+        if (input == null) {
+            throw new IllegalStateException("Open the input before using any read functions");
+        }
+    }
+    
+    private void checkOutput() {
+        if (output == null) {
+            throw new IllegalStateException("Open the output before using any write functions");
+        }
+    }
+    
+    /**
+     * Makes sure at least the given number of bytes can be read from the
+     * buffer, reading more of the file if they can not.
+     */
+    private void fill(int bytes) throws IOException {
+        checkInput();
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            if (input.read(buffer) == -1) {
+                buffer.flip();
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+    }
+    
+    /**
+     * Makes sure at least the given number of bytes can be written to the
+     * buffer, writing it to the file if they can not.
+     */
+    private void reserve(int bytes) throws IOException {
+        checkOutput();
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+    
+    /**
+     * Reads the next byte.
+     * @return the read byte.
+     * @throws IOException if the byte could not be read.
+     */
+    public byte readByte() throws IOException {
+        fill(1);
+        return buffer.get();
+    }
+    
+    /**
+     * Reads the next short.
+     * @return the read short.
+     * @throws IOException if the short could not be read.
+     */
+    public short readShort() throws IOException {
+        fill(2);
+        return buffer.getShort();
+    }
+    
+    /**
+     * Reads the next integer.
+     * @return the read integer.
+     * @throws IOException if the integer could not be read.
+     */
+    public int readInt() throws IOException {
+        fill(4);
+        return buffer.getInt();
+    }
+    
+    /**
+     * Reads the next float.
+     * @return the read float.
+     * @throws IOException if the float could not be read.
+     */
+    public float readFloat() throws IOException {
+        fill(4);
+        return buffer.getFloat();
+    }
+    
+    /**
+     * Reads the next long.
+     * @return the read long.
+     * @throws IOException if the long could not be read.
+     */
+    public long readLong() throws IOException {
+        fill(8);
+        return buffer.getLong();
+    }
+    
+    /**
+     * Reads the next character.
+     * @return the read character.
+     * @throws IOException if the character could not be read.
+     */
+    public char readChar() throws IOException {
+        fill(2);
+        return buffer.getChar();
+    }
+    
+    /**
+     * Reads the next double.
+     * @return the read double.
+     * @throws IOException if the double could not be read.
+     */
+    public double readDouble() throws IOException {
+        fill(8);
+        return buffer.getDouble();
+    }
+    
+    /**
+     * Reads the next boolean.
+     * @return the read boolean.
+     * @throws IOException if the boolean could not be read.
+     */
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+    
+    /**
+     * Reads the next String, which is a short that is the number of bytes
+     * taken up by the string followed by that many bytes.
+     * @return the read String.
+     * @throws IOException if the String could not be read or is not valid.
+     */
+    public String readString() throws IOException {
+        int length = readShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        readBytes(bytes, 0, length);
+        char[] chars = new char[length];
+        int count = 0;
+        for (int i=0; i<length; i++) {
+            int b = bytes[i] & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char)b;
+            } else if ((b & 0xE0) == 0xC0 && i + 1 < length) {
+                chars[count++] = (char)(((b & 0x1F) << 6) | (bytes[++i] & 0x3F));
+            } else if ((b & 0xF0) == 0xE0 && i + 2 < length) {
+                chars[count++] = (char)(((b & 0x0F) << 12) | 
+                        ((bytes[++i] & 0x3F) << 6) | (bytes[++i] & 0x3F));
+            } else {
+                throw new UTFDataFormatException("Malformed string at byte " + i);
+            }
+        }
+        return new String(chars, 0, count);
+    }
+    
+    /**
+     * Reads bytes into part of an array.
+     * @param dst the array to read into.
+     * @param offset the index of the first byte to read into.
+     * @param length the number of bytes to read.
+     * @throws IOException if the bytes could not be read.
+     */
+    public void readBytes(byte[] dst, int offset, int length) throws IOException {
+        while (length > 0) {
+            fill(1);
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(dst, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+    
+    /**
+     * Reads integers into part of an array.
+     * @param dst the array to read into.
+     * @param offset the index of the first integer to read into.
+     * @param length the number of integers to read.
+     * @throws IOException if the integers could not be read.
+     */
+    public void readInts(int[] dst, int offset, int length) throws IOException {
+        while (length > 0) {
+            fill(4);
+            int count = Math.min(length, buffer.remaining() / 4);
+            buffer.asIntBuffer().get(dst, offset, count);
+            buffer.position(buffer.position() + count * 4);
+            offset += count;
+            length -= count;
+        }
+    }
+    
+    /**
+     * Reads floats into part of an array.
+     * @param dst the array to read into.
+     * @param offset the index of the first float to read into.
+     * @param length the number of floats to read.
+     * @throws IOException if the floats could not be read.
+     */
+    public void readFloats(float[] dst, int offset, int length) throws IOException {
+        while (length > 0) {
+            fill(4);
+            int count = Math.min(length, buffer.remaining() / 4);
+            buffer.asFloatBuffer().get(dst, offset, count);
+            buffer.position(buffer.position() + count * 4);
+            offset += count;
+            length -= count;
+        }
+    }
+    
+    /**
+     * Writes a byte.
+     * @param b the byte to write.
+     * @throws IOException if the byte could not be written.
+     */
+    public void writeByte(byte b) throws IOException {
+        reserve(1);
+        buffer.put(b);
+    }
+    
+    /**
+     * Writes a short.
+     * @param s the short to write.
+     * @throws IOException if the short could not be written.
+     */
+    public void writeShort(short s) throws IOException {
+        reserve(2);
+        buffer.putShort(s);
+    }
+    
+    /**
+     * Writes a boolean.
+     * @param b the boolean to write.
+     * @throws IOException if the boolean could not be written.
+     */
+    public void writeBoolean(boolean b) throws IOException {
+        writeByte(b ? (byte)1 : (byte)0);
+    }
+    
+    /**
+     * Writes an integer.
+     * @param i the integer to write.
+     * @throws IOException if the integer could not be written.
+     */
+    public void writeInt(int i) throws IOException {
+        reserve(4);
+        buffer.putInt(i);
+    }
+    
+    /**
+     * Writes a float.
+     * @param f the float to write.
+     * @throws IOException if the float could not be written.
+     */
+    public void writeFloat(float f) throws IOException {
+        reserve(4);
+        buffer.putFloat(f);
+    }
+    
+    /**
+     * Writes a double.
+     * @param d the double to write.
+     * @throws IOException if the double could not be written.
+     */
+    public void writeDouble(double d) throws IOException {
+        reserve(8);
+        buffer.putDouble(d);
+    }
+    
+    /**
+     * Writes a long.
+     * @param l the long to write.
+     * @throws IOException if the long could not be written.
+     */
+    public void writeLong(long l) throws IOException {
+        reserve(8);
+        buffer.putLong(l);
+    }
+    
+    /**
+     * Writes a character.
+     * @param c the character to write.
+     * @throws IOException if the character could not be written.
+     */
+    public void writeChar(char c) throws IOException {
+        reserve(2);
+        buffer.putChar(c);
+    }
+    
+    /**
+     * Writes a String. This is done by first writing a short that is how
+     * many bytes the String takes up, then by writing the bytes of the String.
+     * @param str the String to write.
+     * @throws IOException if the String is longer than 65535 bytes or could
+     * not be written.
+     */
+    public void writeString(String str) throws IOException {
+        int length = 0;
+        for (int i=0; i<str.length(); i++) {
+            char c = str.charAt(i);
+            length += (c >= 0x0001 && c <= 0x007F) ? 1 : (c <= 0x07FF ? 2 : 3);
+        }
+        if (length > 0xFFFF) {
+            throw new UTFDataFormatException("String is too long: " + length + " bytes");
+        }
+        writeShort((short)length);
+        for (int i=0; i<str.length(); i++) {
+            char c = str.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                reserve(1);
+                buffer.put((byte)c);
+            } else if (c <= 0x07FF) {
+                reserve(2);
+                buffer.put((byte)(0xC0 | (c >> 6)));
+                buffer.put((byte)(0x80 | (c & 0x3F)));
+            } else {
+                reserve(3);
+                buffer.put((byte)(0xE0 | (c >> 12)));
+                buffer.put((byte)(0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte)(0x80 | (c & 0x3F)));
+            }
+        }
+    }
+    
+    /**
+     * Writes part of an array of bytes.
+     * @param src the array to write from.
+     * @param offset the index of the first byte to write.
+     * @param length the number of bytes to write.
+     * @throws IOException if the bytes could not be written.
+     */
+    public void writeBytes(byte[] src, int offset, int length) throws IOException {
+        while (length > 0) {
+            reserve(1);
+            int count = Math.min(length, buffer.remaining());
+            buffer.put(src, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+    
+    /**
+     * Writes part of an array of integers.
+     * @param src the array to write from.
+     * @param offset the index of the first integer to write.
+     * @param length the number of integers to write.
+     * @throws IOException if the integers could not be written.
+     */
+    public void writeInts(int[] src, int offset, int length) throws IOException {
+        while (length > 0) {
+            reserve(4);
+            int count = Math.min(length, buffer.remaining() / 4);
+            buffer.asIntBuffer().put(src, offset, count);
+            buffer.position(buffer.position() + count * 4);
+            offset += count;
+            length -= count;
+        }
+    }
+    
+    /**
+     * Writes part of an array of floats.
+     * @param src the array to write from.
+     * @param offset the index of the first float to write.
+     * @param length the number of floats to write.
+     * @throws IOException if the floats could not be written.
+     */
+    public void writeFloats(float[] src, int offset, int length) throws IOException {
+        while (length > 0) {
+            reserve(4);
+            int count = Math.min(length, buffer.remaining() / 4);
+            buffer.asFloatBuffer().put(src, offset, count);
+            buffer.position(buffer.position() + count * 4);
+            offset += count;
+            length -= count;
+        }
+    }
+}
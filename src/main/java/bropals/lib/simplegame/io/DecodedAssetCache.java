@@ -0,0 +1,340 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+import bropals.lib.simplegame.logger.ErrorLogger;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * A directory of decoded assets, keyed by the SHA-256 hash of the bytes
+ * they were decoded from.
+ * <p>
+ * Decoding images with ImageIO and sounds with AudioSystem is slow, so the
+ * BufferedImageLoader and SoundEffectLoader can be given a cache to store
+ * their decoded pixels and samples in. The next time the same bytes are
+ * loaded, the decoded data is memory-mapped from the cache instead. Since
+ * entries are keyed by the content of the source, an edited asset gets a 
+ * new entry and stale entries are never used.
+ * <p>
+ * Images are stored as a header followed by their ARGB pixels as ints.
+ * Sounds are stored as a header describing their AudioFormat followed by
+ * their PCM samples. If an entry can not be read or written, the asset is
+ * decoded normally.
+ * @author Jonathon
+ */
+public class DecodedAssetCache {
+    
+    private static final int IMAGE_MAGIC = 0x4250494D; // BPIM
+    private static final int SOUND_MAGIC = 0x4250434D; // BPCM
+    private static final int VERSION = 1;
+    
+    private final File directory;
+    
+    /**
+     * Makes a cache that stores its entries in the given directory, which
+     * is created if it does not exist.
+     * @param directory the directory to store decoded assets in.
+     */
+    public DecodedAssetCache(File directory) {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            ErrorLogger.println("Could not create the decoded asset cache " + directory);
+        }
+    }
+    
+    /**
+     * Gets the directory this cache stores its entries in.
+     * @return the cache directory.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+    
+    /**
+     * Gets the key of the entry for some source bytes.
+     * @param source the bytes an asset is decoded from.
+     * @return the SHA-256 hash of the bytes in hexadecimal.
+     */
+    public static String hash(byte[] source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    /**
+     * Reads all of the bytes in a stream and closes it.
+     * @param stream the stream to read.
+     * @return the bytes in the stream.
+     * @throws IOException if the stream could not be read.
+     */
+    static byte[] readFully(InputStream stream) throws IOException {
+        try (InputStream in = stream) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    Math.max(32, in.available()));
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+    
+    /**
+     * Gets a decoded image from the cache.
+     * @param hash the hash of the bytes the image was decoded from.
+     * @return the image, or <code>null</code> if it is not in the cache.
+     */
+    public BufferedImage getImage(String hash) {
+        File file = entry(hash, "img");
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            ByteBuffer data = map(file);
+            if (data.getInt() != IMAGE_MAGIC || data.getInt() != VERSION) {
+                return null;
+            }
+            int width = data.getInt();
+            int height = data.getInt();
+            int type = data.getInt();
+            int[] pixels = new int[width * height];
+            data.asIntBuffer().get(pixels);
+            BufferedImage image = new BufferedImage(width, height, type);
+            image.getRaster().setDataElements(0, 0, width, height, pixels);
+            return image;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException ex) {
+            ErrorLogger.println("Could not read decoded image " + file + ": " + ex);
+            return null;
+        }
+    }
+    
+    /**
+     * Stores a decoded image in the cache.
+     * @param hash the hash of the bytes the image was decoded from.
+     * @param image the decoded image.
+     */
+    public void putImage(String hash, BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int type = image.getColorModel().hasAlpha() ? 
+                BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        File file = entry(hash, "img");
+        File temp = null;
+        try {
+            temp = createTemp(file);
+            try (OutputStream stream = Files.newOutputStream(temp.toPath());
+                    DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(stream))) {
+                out.writeInt(IMAGE_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(width);
+                out.writeInt(height);
+                out.writeInt(type);
+                ByteBuffer bytes = ByteBuffer.allocate(pixels.length * 4);
+                bytes.asIntBuffer().put(pixels);
+                out.write(bytes.array());
+            }
+            publish(temp, file);
+        } catch (IOException ex) {
+            ErrorLogger.println("Could not cache decoded image " + file + ": " + ex);
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+    
+    /**
+     * Gets decoded sound samples from the cache.
+     * @param hash the hash of the bytes the sound was decoded from.
+     * @return the sound, or <code>null</code> if it is not in the cache.
+     */
+    public DecodedSound getSound(String hash) {
+        File file = entry(hash, "pcm");
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            ByteBuffer data = map(file);
+            if (data.getInt() != SOUND_MAGIC || data.getInt() != VERSION) {
+                return null;
+            }
+            byte[] encodingName = new byte[data.getShort() & 0xFFFF];
+            data.get(encodingName);
+            AudioFormat format = new AudioFormat(
+                    new AudioFormat.Encoding(new String(encodingName, StandardCharsets.UTF_8)),
+                    data.getFloat(), data.getInt(), data.getInt(), 
+                    data.getInt(), data.getFloat(), data.get() != 0);
+            byte[] samples = new byte[data.getInt()];
+            data.get(samples);
+            return new DecodedSound(format, samples);
+        } catch (IOException | BufferUnderflowException ex) {
+            ErrorLogger.println("Could not read decoded sound " + file + ": " + ex);
+            return null;
+        }
+    }
+    
+    /**
+     * Stores decoded sound samples in the cache.
+     * @param hash the hash of the bytes the sound was decoded from.
+     * @param sound the decoded sound.
+     */
+    public void putSound(String hash, DecodedSound sound) {
+        AudioFormat format = sound.getFormat();
+        File file = entry(hash, "pcm");
+        File temp = null;
+        try {
+            temp = createTemp(file);
+            try (OutputStream stream = Files.newOutputStream(temp.toPath());
+                    DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(stream))) {
+                out.writeInt(SOUND_MAGIC);
+                out.writeInt(VERSION);
+                byte[] encodingName = format.getEncoding().toString()
+                        .getBytes(StandardCharsets.UTF_8);
+                out.writeShort(encodingName.length);
+                out.write(encodingName);
+                out.writeFloat(format.getSampleRate());
+                out.writeInt(format.getSampleSizeInBits());
+                out.writeInt(format.getChannels());
+                out.writeInt(format.getFrameSize());
+                out.writeFloat(format.getFrameRate());
+                out.writeByte(format.isBigEndian() ? 1 : 0);
+                out.writeInt(sound.getSamples().length);
+                out.write(sound.getSamples());
+            }
+            publish(temp, file);
+        } catch (IOException ex) {
+            ErrorLogger.println("Could not cache decoded sound " + file + ": " + ex);
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+    
+    /**
+     * Deletes every entry in the cache.
+     */
+    public void clear() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().endsWith(".img") || f.getName().endsWith(".pcm")) {
+                    f.delete();
+                }
+            }
+        }
+    }
+    
+    private File entry(String hash, String extension) {
+        return new File(directory, hash + "." + extension);
+    }
+    
+    /**
+     * Creates a uniquely named file to write an entry to, so that threads
+     * storing the same entry at once do not write to the same file.
+     */
+    private File createTemp(File file) throws IOException {
+        return File.createTempFile(file.getName() + ".", ".tmp", directory);
+    }
+    
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+    
+    /**
+     * Moves a fully written entry into place, so that another thread or
+     * process never maps half of an entry.
+     */
+    private static void publish(File temp, File file) throws IOException {
+        Files.move(temp.toPath(), file.toPath(), 
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Decoded PCM samples and the format they are in.
+     */
+    public static class DecodedSound {
+        
+        private final AudioFormat format;
+        private final byte[] samples;
+
+        /**
+         * Makes a decoded sound.
+         * @param format the format of the samples.
+         * @param samples the samples.
+         */
+        public DecodedSound(AudioFormat format, byte[] samples) {
+            this.format = format;
+            this.samples = samples;
+        }
+
+        /**
+         * Gets the format of the samples.
+         * @return the audio format.
+         */
+        public AudioFormat getFormat() {
+            return format;
+        }
+
+        /**
+         * Gets the samples.
+         * @return the samples.
+         */
+        public byte[] getSamples() {
+            return samples;
+        }
+    }
+}
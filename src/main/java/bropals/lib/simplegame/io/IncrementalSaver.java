@@ -0,0 +1,539 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+import bropals.lib.simplegame.logger.ErrorLogger;
+import bropals.lib.simplegame.logger.InfoLogger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Saves a world of objects incrementally, writing only the objects that
+ * changed since the last save.
+ * <p>
+ * Each object is a record with a <code>long</code> id, encoded with a
+ * {@link BinaryCodec}. Objects are marked as changed with 
+ * <code>markDirty</code> or <code>markRemoved</code>, and 
+ * <code>save()</code> appends just those records to a log file. Once the
+ * log grows past the compaction threshold, every record is written to a
+ * new snapshot file and the log is started over.
+ * <p>
+ * The files are named after a base file: <code>base.snapshot</code> and
+ * <code>base.log</code>. Every log record has a CRC32, and the log and
+ * snapshot are forced to the disk before a save returns. A snapshot is
+ * written to a temporary file and renamed into place, so a crash during a
+ * save or compaction loses at most the records of that save. When the 
+ * files are read, a torn record at the end of the log is dropped.
+ * @author Jonathon
+ * @param <T> the type of object that is saved
+ */
+public class IncrementalSaver<T> implements Closeable {
+    
+    private static final int SNAPSHOT_MAGIC = 0x42505353; // BPSS
+    private static final int LOG_MAGIC = 0x4250444C; // BPDL
+    private static final int VERSION = 1;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    
+    /**
+     * The default size the log can grow to before it is compacted.
+     */
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 4 * 1024 * 1024;
+    
+    private final File snapshotFile;
+    private final File logFile;
+    private final BinaryCodec<T> codec;
+    private final Map<Long, byte[]> records;
+    private final Map<Long, T> dirty = new LinkedHashMap<>();
+    private final Set<Long> removed = new LinkedHashSet<>();
+    private final Map<Long, byte[]> unsaved = new LinkedHashMap<>();
+    private long generation;
+    /**
+     * The log being appended to, or <code>null</code> if a compaction failed
+     * before the log of the new generation was started.
+     */
+    private FileChannel log;
+    private long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    
+    /**
+     * Opens the save files with the given base name, recovering the records
+     * that were saved before. The files are created if they do not exist.
+     * @param base the base name of the save files.
+     * @param codec the codec that encodes the saved objects.
+     * @throws IOException if the save files could not be read or opened.
+     */
+    public IncrementalSaver(File base, BinaryCodec<T> codec) throws IOException {
+        this.snapshotFile = new File(base.getPath() + ".snapshot");
+        this.logFile = new File(base.getPath() + ".log");
+        this.codec = codec;
+        Recovery recovery = recover(snapshotFile, logFile);
+        this.records = recovery.records;
+        this.generation = recovery.generation;
+        if (recovery.logValid) {
+            log = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE);
+            if (recovery.logEnd < log.size()) {
+                ErrorLogger.println("Dropping a torn record at the end of " + logFile);
+                log.truncate(recovery.logEnd);
+            }
+            log.position(recovery.logEnd);
+        } else {
+            startLog();
+        }
+    }
+    
+    /**
+     * Marks an object as changed, so it is written by the next save. The
+     * object is encoded when it is saved, not when it is marked.
+     * @param id the id of the object's record.
+     * @param object the object.
+     */
+    public void markDirty(long id, T object) {
+        synchronized(dirty) {
+            removed.remove(id);
+            unsaved.remove(id);
+            dirty.put(id, object);
+        }
+    }
+    
+    /**
+     * Marks an object as removed, so its record is deleted by the next save.
+     * @param id the id of the object's record.
+     */
+    public void markRemoved(long id) {
+        synchronized(dirty) {
+            dirty.remove(id);
+            unsaved.remove(id);
+            removed.add(id);
+        }
+    }
+    
+    /**
+     * Gets the number of objects that will be written by the next save.
+     * @return the number of changed and removed objects.
+     */
+    public int getDirtyCount() {
+        synchronized(dirty) {
+            return dirty.size() + removed.size() + unsaved.size();
+        }
+    }
+    
+    /**
+     * Encodes the objects that changed since the last save, appends them to
+     * the log and forces the log to the disk. Compacts the log afterwards if
+     * it has grown past the compaction threshold; a compaction that fails is
+     * logged and tried again by a later save.
+     * @return the number of records that were written.
+     * @throws IOException if the records could not be written.
+     */
+    public int save() throws IOException {
+        return append(encodeDirty());
+    }
+    
+    /**
+     * Encodes the objects that changed since the last save, and forgets that
+     * they changed. The objects must not change while this runs. This does
+     * not wait for an <code>append</code> on another thread.
+     * @return the encoded changes, ready to be appended with 
+     * <code>append</code>.
+     */
+    Map<Long, byte[]> encodeDirty() {
+        synchronized(dirty) {
+            Map<Long, byte[]> changes = new LinkedHashMap<>(unsaved);
+            for (Map.Entry<Long, T> entry : dirty.entrySet()) {
+                changes.put(entry.getKey(), codec.encode(entry.getValue()));
+            }
+            for (Long id : removed) {
+                changes.put(id, null);
+            }
+            dirty.clear();
+            removed.clear();
+            unsaved.clear();
+            return changes;
+        }
+    }
+    
+    /**
+     * Puts encoded changes that could not be appended back, so the next
+     * save writes them again. A change is dropped if the object was marked
+     * as changed or removed again since it was encoded.
+     * @param changes the encoded changes from <code>encodeDirty</code>.
+     */
+    void restore(Map<Long, byte[]> changes) {
+        synchronized(dirty) {
+            for (Map.Entry<Long, byte[]> change : changes.entrySet()) {
+                Long id = change.getKey();
+                if (!dirty.containsKey(id) && !removed.contains(id)) {
+                    unsaved.put(id, change.getValue());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Appends encoded changes to the log, where a <code>null</code> value
+     * removes a record. If they can not be written, the log is cut back to
+     * where it was and the changes are restored for the next save.
+     * @param changes the encoded changes.
+     * @return the number of records that were written.
+     * @throws IOException if the records could not be written.
+     */
+    synchronized int append(Map<Long, byte[]> changes) throws IOException {
+        if (changes.isEmpty()) {
+            return 0;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        CRC32 crc = new CRC32();
+        for (Map.Entry<Long, byte[]> change : changes.entrySet()) {
+            byte[] data = change.getValue();
+            ByteBuffer header = ByteBuffer.allocate(13);
+            header.put(data == null ? REMOVE : PUT).putLong(change.getKey())
+                    .putInt(data == null ? 0 : data.length);
+            crc.reset();
+            crc.update(header.array());
+            out.write(header.array());
+            if (data != null) {
+                crc.update(data);
+                out.write(data);
+            }
+            out.writeInt((int)crc.getValue());
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        long start = -1;
+        try {
+            if (log == null) {
+                startLog();
+            }
+            start = log.position();
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            log.force(false);
+        } catch (IOException | RuntimeException ex) {
+            if (start >= 0) {
+                // a torn record would hide every record appended after it
+                try {
+                    log.truncate(start);
+                    log.position(start);
+                } catch (IOException truncateFailure) {
+                    ex.addSuppressed(truncateFailure);
+                }
+            }
+            restore(changes);
+            throw ex;
+        }
+        for (Map.Entry<Long, byte[]> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                records.remove(change.getKey());
+            } else {
+                records.put(change.getKey(), change.getValue());
+            }
+        }
+        // the changes are already on the disk, so a failed compaction is 
+        // only logged and tried again on a later save
+        try {
+            if (log.size() > compactionThreshold) {
+                compact();
+            }
+        } catch (IOException ex) {
+            ErrorLogger.println("Could not compact " + logFile + ": " + ex);
+        }
+        return changes.size();
+    }
+    
+    /**
+     * Writes every record to a new snapshot and starts a new, empty log.
+     * Objects that are marked as changed but not saved yet are not included.
+     * @throws IOException if the snapshot could not be written.
+     */
+    public synchronized void compact() throws IOException {
+        long next = generation + 1;
+        File temp = new File(snapshotFile.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), 
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, 
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)), crc));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(next);
+            out.writeInt(records.size());
+            for (Map.Entry<Long, byte[]> record : records.entrySet()) {
+                out.writeLong(record.getKey());
+                out.writeInt(record.getValue().length);
+                out.write(record.getValue());
+            }
+            out.flush();
+            int checksum = (int)crc.getValue();
+            out.writeInt(checksum);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp.toPath(), snapshotFile.toPath(), 
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        generation = next;
+        // a crash before the new log is in place leaves a log of the older
+        // generation, which is ignored because the snapshot already has it
+        FileChannel old = log;
+        log = null;
+        if (old != null) {
+            old.close();
+        }
+        startLog();
+        InfoLogger.println("Compacted " + records.size() + " records into " + snapshotFile);
+    }
+    
+    /**
+     * Writes a new, empty log for the current generation.
+     */
+    private void startLog() throws IOException {
+        File temp = new File(logFile.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), 
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, 
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            header.putInt(LOG_MAGIC).putInt(VERSION).putLong(generation).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+        }
+        Files.move(temp.toPath(), logFile.toPath(), 
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE);
+        log.position(log.size());
+    }
+    
+    /**
+     * Sets the size the log can grow to before it is compacted into a new
+     * snapshot.
+     * @param compactionThreshold the size of the log in bytes.
+     */
+    public synchronized void setCompactionThreshold(long compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+    
+    /**
+     * Gets the size the log can grow to before it is compacted.
+     * @return the compaction threshold in bytes.
+     */
+    public synchronized long getCompactionThreshold() {
+        return compactionThreshold;
+    }
+    
+    /**
+     * Gets the encoded records as of the last save.
+     * @return a snapshot of the records, by id.
+     */
+    public synchronized Map<Long, byte[]> getRecords() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(records));
+    }
+    
+    /**
+     * Returns <code>true</code> if there is a saved record with the given id.
+     * @param id the id of the record.
+     * @return if the record exists.
+     */
+    public synchronized boolean hasRecord(long id) {
+        return records.containsKey(id);
+    }
+    
+    /**
+     * Reads a saved record into an existing object.
+     * @param id the id of the record.
+     * @param object the object to read the record into.
+     * @return <code>true</code> if the record exists and was read.
+     * @throws IOException if the record could not be decoded.
+     */
+    public boolean read(long id, T object) throws IOException {
+        byte[] data;
+        synchronized(this) {
+            data = records.get(id);
+        }
+        if (data == null) {
+            return false;
+        }
+        codec.read(new DataInputStream(new ByteArrayInputStream(data)), object);
+        return true;
+    }
+    
+    /**
+     * Decodes every saved record into a new object. The saved class needs
+     * a constructor without arguments.
+     * @return the saved objects, by id.
+     * @throws IOException if a record could not be decoded.
+     */
+    public Map<Long, T> load() throws IOException {
+        Map<Long, T> objects = new LinkedHashMap<>();
+        for (Map.Entry<Long, byte[]> record : getRecords().entrySet()) {
+            objects.put(record.getKey(), codec.decode(record.getValue()));
+        }
+        return objects;
+    }
+
+    /**
+     * Closes the log. Objects that were marked but not saved are not written.
+     * @throws IOException if the log could not be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+    }
+    
+    /**
+     * Reads the records in save files without opening them for writing, such
+     * as to check a save or load it in a tool.
+     * @param base the base name of the save files.
+     * @return the saved records, by id.
+     * @throws IOException if the snapshot could not be read.
+     */
+    public static Map<Long, byte[]> readRecords(File base) throws IOException {
+        return recover(new File(base.getPath() + ".snapshot"), 
+                new File(base.getPath() + ".log")).records;
+    }
+    
+    private static Recovery recover(File snapshotFile, File logFile) throws IOException {
+        Recovery recovery = new Recovery();
+        if (snapshotFile.isFile()) {
+            readSnapshot(snapshotFile, recovery);
+        }
+        if (logFile.isFile()) {
+            readLog(logFile, recovery);
+        }
+        return recovery;
+    }
+    
+    private static void readSnapshot(File file, Recovery recovery) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream stream = Files.newInputStream(file.toPath())) {
+            DataInputStream in = new DataInputStream(new CheckedInputStream(
+                    new BufferedInputStream(stream), crc));
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a snapshot file: " + file);
+            }
+            recovery.generation = in.readLong();
+            int count = in.readInt();
+            for (int i=0; i<count; i++) {
+                long id = in.readLong();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                recovery.records.put(id, data);
+            }
+            int expected = (int)crc.getValue();
+            if (in.readInt() != expected) {
+                throw new IOException("Snapshot file is corrupt: " + file);
+            }
+        } catch (EOFException ex) {
+            throw new IOException("Snapshot file is truncated: " + file);
+        }
+    }
+    
+    private static void readLog(File file, Recovery recovery) throws IOException {
+        try (InputStream stream = Files.newInputStream(file.toPath())) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            try {
+                if (in.readInt() != LOG_MAGIC || in.readInt() != VERSION || 
+                        in.readLong() != recovery.generation) {
+                    // a log from before the latest compaction
+                    return;
+                }
+            } catch (EOFException ex) {
+                return;
+            }
+            recovery.logValid = true;
+            recovery.logEnd = 16;
+            long size = Files.size(file.toPath());
+            CRC32 crc = new CRC32();
+            byte[] header = new byte[13];
+            while (true) {
+                try {
+                    in.readFully(header);
+                    ByteBuffer fields = ByteBuffer.wrap(header);
+                    byte op = fields.get();
+                    long id = fields.getLong();
+                    int length = fields.getInt();
+                    long left = size - recovery.logEnd - header.length - 4;
+                    if ((op != PUT && op != REMOVE) || length < 0 || length > left) {
+                        return;
+                    }
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+                    crc.reset();
+                    crc.update(header);
+                    crc.update(data);
+                    if (in.readInt() != (int)crc.getValue()) {
+                        return;
+                    }
+                    if (op == PUT) {
+                        recovery.records.put(id, data);
+                    } else {
+                        recovery.records.remove(id);
+                    }
+                    recovery.logEnd += header.length + length + 4;
+                } catch (EOFException ex) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    /**
+     * The records read from the save files, and where the valid part of the
+     * log ends.
+     */
+    private static class Recovery {
+        
+        private final Map<Long, byte[]> records = new LinkedHashMap<>();
+        private long generation = 0;
+        private boolean logValid = false;
+        private long logEnd = 0;
+    }
+}
@@ -0,0 +1,517 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A memory-mapped file of fixed-size regions that can be read and written
+ * in place, such as the chunks of a large world.
+ * <p>
+ * The file starts with a header: the magic number <code>BPRF</code>, the
+ * format version, the number of regions and the capacity of each region in
+ * bytes. An index of the used length of every region follows, with -1 for 
+ * a region that has never been written. The regions come after the index,
+ * each one starting at a fixed offset, so reading or updating one region
+ * never touches the others.
+ * <p>
+ * The getters and setters take the index of a region and an offset in
+ * bytes inside of it. Writing past the used length of a region extends it.
+ * Changes are written back to the file by the operating system; call 
+ * <code>force()</code> to make sure they are on the disk. The whole file
+ * is mapped at once, so it must be smaller than 2GB. Reads and writes are
+ * not synchronized; different threads may use different regions.
+ * @author Jonathon
+ */
+public class MappedRecordFile implements Closeable {
+    
+    private static final int MAGIC = 0x42505246; // BPRF
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final boolean writable;
+    private final int regionCount;
+    private final int regionCapacity;
+    private final int dataStart;
+    
+    private MappedRecordFile(File file, FileChannel channel, boolean writable, 
+            int regionCount, int regionCapacity) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.writable = writable;
+        this.regionCount = regionCount;
+        this.regionCapacity = regionCapacity;
+        this.dataStart = HEADER_SIZE + regionCount * 4;
+        long size = (long)dataStart + (long)regionCount * regionCapacity;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Record file would be larger than 2GB: " + file);
+        }
+        this.buffer = channel.map(writable ? FileChannel.MapMode.READ_WRITE : 
+                FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+    
+    /**
+     * Creates a new record file, replacing the file if it exists. Every
+     * region starts out unwritten.
+     * @param file the file to create.
+     * @param regionCount the number of regions in the file.
+     * @param regionCapacity the number of bytes each region can hold.
+     * @return the record file, open for reading and writing.
+     * @throws IOException if the file could not be created.
+     */
+    public static MappedRecordFile create(File file, int regionCount, 
+            int regionCapacity) throws IOException {
+        if (regionCount < 0 || regionCapacity < 0) {
+            throw new IllegalArgumentException("The region count and capacity can not be negative");
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), 
+                StandardOpenOption.READ, StandardOpenOption.WRITE, 
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            MappedRecordFile records = new MappedRecordFile(file, channel, true, 
+                    regionCount, regionCapacity);
+            records.buffer.putInt(0, MAGIC);
+            records.buffer.putInt(4, VERSION);
+            records.buffer.putInt(8, regionCount);
+            records.buffer.putInt(12, regionCapacity);
+            for (int i=0; i<regionCount; i++) {
+                records.buffer.putInt(HEADER_SIZE + i * 4, -1);
+            }
+            return records;
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Opens an existing record file.
+     * @param file the file to open.
+     * @param writable whether or not the file can be written to.
+     * @return the record file.
+     * @throws IOException if the file could not be opened or is not a
+     * record file.
+     */
+    public static MappedRecordFile open(File file, boolean writable) throws IOException {
+        FileChannel channel = writable ? 
+                FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE) :
+                FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) == -1) {
+                    throw new IOException("Not a record file: " + file);
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a record file: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported record file version " + 
+                        version + ": " + file);
+            }
+            int regionCount = header.getInt();
+            int regionCapacity = header.getInt();
+            if (regionCount < 0 || regionCapacity < 0 || 
+                    channel.size() < HEADER_SIZE + (long)regionCount * 4 + 
+                    (long)regionCount * regionCapacity) {
+                throw new IOException("Record file is truncated: " + file);
+            }
+            return new MappedRecordFile(file, channel, writable, regionCount, regionCapacity);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Gets the number of regions in this file.
+     * @return the number of regions.
+     */
+    public int getRegionCount() {
+        return regionCount;
+    }
+    
+    /**
+     * Gets the number of bytes each region can hold.
+     * @return the capacity of a region in bytes.
+     */
+    public int getRegionCapacity() {
+        return regionCapacity;
+    }
+    
+    /**
+     * Returns <code>true</code> if the region has been written to.
+     * @param region the index of the region.
+     * @return if the region has been written to.
+     */
+    public boolean hasRegion(int region) {
+        return buffer.getInt(indexOffset(region)) >= 0;
+    }
+    
+    /**
+     * Gets the number of bytes used in a region.
+     * @param region the index of the region.
+     * @return the used length of the region, or 0 if it has never been
+     * written to.
+     */
+    public int getRegionLength(int region) {
+        return Math.max(0, buffer.getInt(indexOffset(region)));
+    }
+    
+    /**
+     * Sets the number of bytes used in a region.
+     * @param region the index of the region.
+     * @param length the used length of the region, or -1 to mark it as
+     * never written to.
+     */
+    public void setRegionLength(int region, int length) {
+        checkWritable();
+        if (length < -1 || length > regionCapacity) {
+            throw new IndexOutOfBoundsException("Region length " + length + 
+                    " is outside of 0 to " + regionCapacity);
+        }
+        buffer.putInt(indexOffset(region), length);
+    }
+    
+    /**
+     * Marks a region as never written to.
+     * @param region the index of the region.
+     */
+    public void clearRegion(int region) {
+        setRegionLength(region, -1);
+    }
+    
+    /**
+     * Gets the used part of a region as a buffer that shares this file's
+     * mapped memory. The buffer is read-only if the file is.
+     * @param region the index of the region.
+     * @return the used bytes of the region, from position 0 to its length.
+     */
+    public ByteBuffer getRegion(int region) {
+        int start = regionOffset(region);
+        ByteBuffer view = writable ? buffer.duplicate() : buffer.asReadOnlyBuffer();
+        view.position(start);
+        view.limit(start + getRegionLength(region));
+        return view.slice();
+    }
+    
+    /**
+     * Reads a byte from a region.
+     * @param region the index of the region.
+     * @param offset the offset in the region, in bytes.
+     * @return the read byte.
+     */
+    public byte getByte(int region, int offset) {
+        return buffer.get(address(region, offset, 1));
+    }
+    
+    /**
+     * Writes a byte into a region.
+     * @param region the index of the region.
+     * @param offset the offset in the region, in bytes.
+     * @param value the byte to write.
+     */
+    public void putByte(int region, int offset, byte value) {
+        buffer.put(writeAddress(region, offset, 1), value);
+    }
+    
+    /**
+     * Reads a short from a region.
+     * @param region the index of the region.
+     * @param offset the offset in the region, in bytes.
+     * @return the read short.
+     */
+    public short getShort(int region, int offset) {
+        return buffer.getShort(address(region, offset, 2));
+    }
+    
+    /**
+     * Writes a short into a region.
+     * @param region the index of the region.
+     * @param offset the offset in the region, in bytes.
+     * @param value the short to write.
+     */
+    public void putShort(int region, int offset, short value) {
+        buffer.putShort(writeAddress(region, offset, 2), value);
+    }
+    
+    /**
+     * Reads an integer from a region.
+     * @param region the index of the region.
+     * @param offset the offset in the region, in bytes.
+     * @return the read integer.
+     */
+    public int getInt(int region, int offset) {
+        return buffer.getInt(address(region, offset, 4));
+    }
+    
+    /**
+     * Writes an integer into a region.
+     * @param region the index of the region.
+     * @param offset the offset in the region, in bytes.
+     * @param value the integer to write.
+     */
+    public void putInt(int region, int offset, int value) {
+        buffer.putInt(writeAddress(region, offset, 4), value);
+    }
+    
+    /**
+     * Reads a long from a region.
+     * @param region the index of the region.
+     * @param offset the offset in the region, in bytes.
+     * @return the read long.
+     */
+    public long getLong(int region, int offset) {
+        return buffer.getLong(address(region, offset, 8));
+    }
+    
+    /**
+     * Writes a long into a region.
+     * @param region the index of the region.
+     * @param offset the offset in the region, in bytes.
+     * @param value the long to write.
+     */
+    public void putLong(int region, int offset, long value) {
+        buffer.putLong(writeAddress(region, offset, 8), value);
+    }
+    
+    /**
+     * Reads a float from a region.
+     * @param region the index of the region.
+     * @param offset the offset in the region, in bytes.
+     * @return the read float.
+     */
+    public float getFloat(int region, int offset) {
+        return buffer.getFloat(address(region, offset, 4));
+    }
+    
+    /**
+     * Writes a float into a region.
+     * @param region the index of the region.
+     * @param offset the offset in the region, in bytes.
+     * @param value the float to write.
+     */
+    public void putFloat(int region, int offset, float value) {
+        buffer.putFloat(writeAddress(region, offset, 4), value);
+    }
+    
+    /**
+     * Reads a double from a region.
+     * @param region the index of the region.
+     * @param offset the offset in the region, in bytes.
+     * @return the read double.
+     */
+    public double getDouble(int region, int offset) {
+        return buffer.getDouble(address(region, offset, 8));
+    }
+    
+    /**
+     * Writes a double into a region.
+     * @param region the index of the region.
+     * @param offset the offset in the region, in bytes.
+     * @param value the double to write.
+     */
+    public void putDouble(int region, int offset, double value) {
+        buffer.putDouble(writeAddress(region, offset, 8), value);
+    }
+    
+    /**
+     * Reads bytes from a region into part of an array.
+     * @param region the index of the region.
+     * @param offset the offset in the region, in bytes.
+     * @param dst the array to read into.
+     * @param dstOffset the index of the first byte to read into.
+     * @param length the number of bytes.
+     */
+    public void getBytes(int region, int offset, byte[] dst, int dstOffset, int length) {
+        view(address(region, offset, length), length).get(dst, dstOffset, length);
+    }
+    
+    /**
+     * Writes part of an array of bytes into a region.
+     * @param region the index of the region.
+     * @param offset the offset in the region, in bytes.
+     * @param src the array to write from.
+     * @param srcOffset the index of the first byte to write.
+     * @param length the number of bytes.
+     */
+    public void putBytes(int region, int offset, byte[] src, int srcOffset, int length) {
+        view(writeAddress(region, offset, length), length).put(src, srcOffset, length);
+    }
+    
+    /**
+     * Reads integers from a region into part of an array.
+     * @param region the index of the region.
+     * @param offset the offset in the region, in bytes.
+     * @param dst the array to read into.
+     * @param dstOffset the index of the first int to read into.
+     * @param length the number of integers.
+     */
+    public void getInts(int region, int offset, int[] dst, int dstOffset, int length) {
+        view(address(region, offset, length * 4), length * 4).asIntBuffer()
+                .get(dst, dstOffset, length);
+    }
+    
+    /**
+     * Writes part of an array of integers into a region.
+     * @param region the index of the region.
+     * @param offset the offset in the region, in bytes.
+     * @param src the array to write from.
+     * @param srcOffset the index of the first int to write.
+     * @param length the number of integers.
+     */
+    public void putInts(int region, int offset, int[] src, int srcOffset, int length) {
+        view(writeAddress(region, offset, length * 4), length * 4).asIntBuffer()
+                .put(src, srcOffset, length);
+    }
+    
+    /**
+     * Reads floats from a region into part of an array.
+     * @param region the index of the region.
+     * @param offset the offset in the region, in bytes.
+     * @param dst the array to read into.
+     * @param dstOffset the index of the first float to read into.
+     * @param length the number of floats.
+     */
+    public void getFloats(int region, int offset, float[] dst, int dstOffset, int length) {
+        view(address(region, offset, length * 4), length * 4).asFloatBuffer()
+                .get(dst, dstOffset, length);
+    }
+    
+    /**
+     * Writes part of an array of floats into a region.
+     * @param region the index of the region.
+     * @param offset the offset in the region, in bytes.
+     * @param src the array to write from.
+     * @param srcOffset the index of the first float to write.
+     * @param length the number of floats.
+     */
+    public void putFloats(int region, int offset, float[] src, int srcOffset, int length) {
+        view(writeAddress(region, offset, length * 4), length * 4).asFloatBuffer()
+                .put(src, srcOffset, length);
+    }
+    
+    /**
+     * Makes sure every change to this file has been written to the disk.
+     */
+    public void force() {
+        if (writable) {
+            buffer.force();
+        }
+    }
+    
+    /**
+     * Returns <code>true</code> if this file can be written to.
+     * @return if this file can be written to.
+     */
+    public boolean isWritable() {
+        return writable;
+    }
+    
+    /**
+     * Gets the file this record file was opened from.
+     * @return the file.
+     */
+    public File getFile() {
+        return file;
+    }
+    
+    /**
+     * Forces changes to the disk and closes the file. The mapped memory is
+     * released by the garbage collector once no region buffers are in use.
+     * @throws IOException if the file could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+    
+    private ByteBuffer view(int address, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(address);
+        view.limit(address + length);
+        return view.slice();
+    }
+    
+    private int indexOffset(int region) {
+        if (region < 0 || region >= regionCount) {
+            throw new IndexOutOfBoundsException("Region " + region + 
+                    " is outside of 0 to " + (regionCount - 1));
+        }
+        return HEADER_SIZE + region * 4;
+    }
+    
+    private int regionOffset(int region) {
+        indexOffset(region);
+        return dataStart + region * regionCapacity;
+    }
+    
+    /**
+     * Gets the address of a value being read, which must be inside the used
+     * part of the region.
+     */
+    private int address(int region, int offset, int size) {
+        if (offset < 0 || size < 0 || offset + size > getRegionLength(region)) {
+            throw new IndexOutOfBoundsException("Can not read " + size + 
+                    " bytes at " + offset + " in region " + region);
+        }
+        return regionOffset(region) + offset;
+    }
+    
+    /**
+     * Gets the address of a value being written, which must fit in the 
+     * region, and extends the used part of the region to include it.
+     */
+    private int writeAddress(int region, int offset, int size) {
+        checkWritable();
+        if (offset < 0 || size < 0 || offset + size > regionCapacity) {
+            throw new IndexOutOfBoundsException("Can not write " + size + 
+                    " bytes at " + offset + " in region " + region);
+        }
+        if (offset + size > getRegionLength(region)) {
+            buffer.putInt(indexOffset(region), offset + size);
+        }
+        return regionOffset(region) + offset;
+    }
+    
+    private void checkWritable() {
+        if (!writable) {
+            throw new IllegalStateException("The record file was opened read-only");
+        }
+    }
+}
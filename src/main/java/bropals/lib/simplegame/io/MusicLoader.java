@@ -40,7 +40,7 @@ import javax.sound.sampled.UnsupportedAudioFileException;
  * Loads Music objects for playing long audio files.
  * @author Jonathon
  */
-public class MusicLoader extends AssetLoader {
+public class MusicLoader extends AssetLoader<Music> {
 
     @Override
     public void loadAsset(String key, InputStream inputStream) {
@@ -60,4 +60,14 @@ public class MusicLoader extends AssetLoader {
             System.err.println("There is no available Mixer for this music: " + key);
         }
     }
+
+    /**
+     * Music is played straight from its input stream, so the stream must
+     * stay open after it is loaded.
+     * @return true
+     */
+    @Override
+    protected boolean isStreamed() {
+        return true;
+    }
 }
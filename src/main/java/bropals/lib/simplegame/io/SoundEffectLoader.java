@@ -29,6 +29,7 @@ import bropals.lib.simplegame.logger.InfoLogger;
 import bropals.lib.simplegame.sound.SoundEffect;
 import bropals.lib.simplegame.sound.SoundUtil;
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import javax.sound.sampled.AudioFormat;
@@ -41,38 +42,28 @@ import javax.sound.sampled.UnsupportedAudioFileException;
 
 /**
  * Loads SoundEffects. To be added to AssetLoader.
+ * <p>
+ * Sounds are decoded into PCM samples before their clips are opened. If the
+ * loader has a {@link DecodedAssetCache}, the samples are stored in it and
+ * the sound is not decoded again the next time it is loaded.
  * @author Jonathon
  */
 public class SoundEffectLoader extends AssetLoader<SoundEffect> {
     
+    private volatile DecodedAssetCache decodedCache = null;
+    
     @Override
     public void loadAsset(String key, InputStream inputStream) {
         try {
-            AudioInputStream ais
-                    = AudioSystem.getAudioInputStream(new BufferedInputStream(inputStream));
-
-            AudioFormat format = ais.getFormat();
-
-            /* 
-             Convert the format if necessary
-
-             Credit to "Killer Game Programming in Java" by Andrew Davidson 
-             for the audio format conversion code
-             */
-            if ((format.getEncoding() == AudioFormat.Encoding.ULAW)
-                    || (format.getEncoding() == AudioFormat.Encoding.ALAW)) {
-                AudioFormat newFormat = SoundUtil.convertToPCMSigned(format);
-                ais = AudioSystem.getAudioInputStream(newFormat, ais);
-                format = newFormat;
-            }
-            DataLine.Info info = new DataLine.Info(Clip.class, format);
+            DecodedAssetCache.DecodedSound sound = decode(key, inputStream);
+            DataLine.Info info = new DataLine.Info(Clip.class, sound.getFormat());
 
             if (!AudioSystem.isLineSupported(info)) {
                 throw new UnsupportedAudioFileException();
             }
             Clip clip = (Clip) AudioSystem.getLine(info);
-            clip.open(ais);
-            ais.close();
+            clip.open(sound.getFormat(), sound.getSamples(), 0, 
+                    sound.getSamples().length);
             SoundEffect sfx = new SoundEffect(clip);
             add(key, sfx);
             InfoLogger.println("Loaded a sound effect with the key " + key);
@@ -80,4 +71,85 @@ public class SoundEffectLoader extends AssetLoader<SoundEffect> {
             ErrorLogger.println("Could not load SoundEffect with key " + key + "; " +  ex);
         }
     }
+    
+    /**
+     * Decodes a sound into PCM samples, or takes the samples from the 
+     * decoded asset cache if there is one.
+     */
+    private DecodedAssetCache.DecodedSound decode(String key, InputStream inputStream) 
+            throws IOException, UnsupportedAudioFileException {
+        DecodedAssetCache cache = decodedCache;
+        String hash = null;
+        if (cache != null) {
+            byte[] source = DecodedAssetCache.readFully(inputStream);
+            hash = DecodedAssetCache.hash(source);
+            DecodedAssetCache.DecodedSound sound = cache.getSound(hash);
+            if (sound != null) {
+                InfoLogger.println("Using the decoded sound cached for " + key);
+                return sound;
+            }
+            inputStream = new ByteArrayInputStream(source);
+        }
+        
+        AudioInputStream ais
+                = AudioSystem.getAudioInputStream(new BufferedInputStream(inputStream));
+
+        AudioFormat format = ais.getFormat();
+
+        /* 
+         Convert the format if necessary
+
+         Credit to "Killer Game Programming in Java" by Andrew Davidson 
+         for the audio format conversion code
+         */
+        if ((format.getEncoding() == AudioFormat.Encoding.ULAW)
+                || (format.getEncoding() == AudioFormat.Encoding.ALAW)) {
+            AudioFormat newFormat = SoundUtil.convertToPCMSigned(format);
+            ais = AudioSystem.getAudioInputStream(newFormat, ais);
+            format = newFormat;
+        }
+        DecodedAssetCache.DecodedSound sound = new DecodedAssetCache.DecodedSound(
+                format, DecodedAssetCache.readFully(ais));
+        if (cache != null) {
+            cache.putSound(hash, sound);
+        }
+        return sound;
+    }
+    
+    /**
+     * Sets the cache that decoded sounds are stored in and read from.
+     * @param decodedCache the cache, or <code>null</code> to always decode
+     * sounds with AudioSystem.
+     */
+    public void setDecodedCache(DecodedAssetCache decodedCache) {
+        this.decodedCache = decodedCache;
+    }
+    
+    /**
+     * Gets the cache that decoded sounds are stored in and read from.
+     * @return the cache, or <code>null</code> if there is none.
+     */
+    public DecodedAssetCache getDecodedCache() {
+        return decodedCache;
+    }
+    
+    /**
+     * Estimates the size of a sound effect from the length of its clip.
+     * @param asset the sound effect
+     * @return the estimated size of the sound effect in bytes.
+     */
+    @Override
+    protected long estimateSize(SoundEffect asset) {
+        Clip clip = asset.getRaw();
+        return (long)clip.getFrameLength() * clip.getFormat().getFrameSize();
+    }
+    
+    /**
+     * Closes the clip of a sound effect that was evicted or reloaded.
+     * @param asset the sound effect that is no longer stored
+     */
+    @Override
+    protected void release(SoundEffect asset) {
+        asset.getRaw().close();
+    }
 }
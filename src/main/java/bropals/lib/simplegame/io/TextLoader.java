@@ -0,0 +1,210 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads text, such as shader sources, as UTF-8.
+ * <p>
+ * Streams are read through a reusable buffer, one per thread, rather than 
+ * one character at a time. Files are read in a single call and cached by 
+ * their path, modification time and length, so reading a file that has not 
+ * changed since it was last read does not touch the disk again. The cache 
+ * holds at most <code>getMaxCachedChars()</code> characters; the files that
+ * were read the longest time ago are removed first.
+ * @author Jonathon
+ */
+public class TextLoader {
+    
+    private static final int BUFFER_SIZE = 8192;
+    
+    /**
+     * The default number of characters of file text that can be cached.
+     */
+    public static final long DEFAULT_MAX_CACHED_CHARS = 1024 * 1024;
+    
+    private static final ThreadLocal<char[]> BUFFERS = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[BUFFER_SIZE];
+        }
+    };
+    
+    /**
+     * The cached file text, from the least to the most recently read. 
+     * Guarded by itself.
+     */
+    private static final LinkedHashMap<String, CachedText> CACHE = 
+            new LinkedHashMap<>(16, 0.75f, true);
+    private static long cachedChars = 0;
+    private static long maxCachedChars = DEFAULT_MAX_CACHED_CHARS;
+    
+    /**
+     * Reads all of the text in a stream as UTF-8. The stream is not closed;
+     * that is left to the caller.
+     * @param stream the stream to read.
+     * @return the text in the stream.
+     * @throws IOException if the stream could not be read.
+     */
+    public static String read(InputStream stream) throws IOException {
+        char[] buffer = BUFFERS.get();
+        StringBuilder text = new StringBuilder(Math.max(16, stream.available()));
+        Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8);
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            text.append(buffer, 0, read);
+        }
+        return text.toString();
+    }
+    
+    /**
+     * Reads all of the text in a file as UTF-8. If the file was read before
+     * and has not been modified since, the cached text is returned.
+     * @param file the file to read.
+     * @return the text in the file.
+     * @throws IOException if the file could not be read.
+     */
+    public static String read(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        synchronized (CACHE) {
+            CachedText cached = CACHE.get(path);
+            if (cached != null && cached.lastModified == lastModified && 
+                    cached.length == length) {
+                return cached.text;
+            }
+        }
+        String text = new String(Files.readAllBytes(file.toPath()), 
+                StandardCharsets.UTF_8);
+        synchronized (CACHE) {
+            CachedText old = CACHE.put(path, new CachedText(lastModified, length, text));
+            if (old != null) {
+                cachedChars -= old.text.length();
+            }
+            cachedChars += text.length();
+            trim();
+        }
+        return text;
+    }
+    
+    /**
+     * Removes the cached text of a file, such as when the asset that was
+     * read from it is unloaded.
+     * @param file the file whose text should no longer be cached.
+     */
+    public static void uncache(File file) {
+        synchronized (CACHE) {
+            CachedText old = CACHE.remove(file.getAbsolutePath());
+            if (old != null) {
+                cachedChars -= old.text.length();
+            }
+        }
+    }
+    
+    /**
+     * Removes all of the cached file text.
+     */
+    public static void clearCache() {
+        synchronized (CACHE) {
+            CACHE.clear();
+            cachedChars = 0;
+        }
+    }
+    
+    /**
+     * Gets the number of files whose text is cached.
+     * @return the number of cached files.
+     */
+    public static int getCacheSize() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+    
+    /**
+     * Sets how many characters of file text can be cached. Text that was 
+     * read the longest time ago is removed until the cache fits.
+     * @param maxCachedChars the largest number of cached characters, or 0
+     * to not cache file text.
+     */
+    public static void setMaxCachedChars(long maxCachedChars) {
+        if (maxCachedChars < 0) {
+            throw new IllegalArgumentException("The cache size can not be negative");
+        }
+        synchronized (CACHE) {
+            TextLoader.maxCachedChars = maxCachedChars;
+            trim();
+        }
+    }
+    
+    /**
+     * Gets how many characters of file text can be cached.
+     * @return the largest number of cached characters.
+     */
+    public static long getMaxCachedChars() {
+        synchronized (CACHE) {
+            return maxCachedChars;
+        }
+    }
+    
+    /**
+     * Removes the least recently read text until the cache fits. Called 
+     * while holding the cache lock.
+     */
+    private static void trim() {
+        Iterator<Map.Entry<String, CachedText>> entries = CACHE.entrySet().iterator();
+        while (cachedChars > maxCachedChars && entries.hasNext()) {
+            cachedChars -= entries.next().getValue().text.length();
+            entries.remove();
+        }
+    }
+    
+    /**
+     * The text of a file when it had a modification time and length.
+     */
+    private static class CachedText {
+        
+        private final long lastModified;
+        private final long length;
+        private final String text;
+
+        CachedText(long lastModified, long length, String text) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.text = text;
+        }
+    }
+}
@@ -5,12 +5,15 @@
  */
 package bropals.lib.simplegame.leveldesigner;
 
+import bropals.lib.simplegame.io.BlockCompressedInputStream;
+import bropals.lib.simplegame.io.BlockCompressedOutputStream;
 import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -44,6 +47,7 @@ public abstract class LevelEditor2DMain extends JFrame {
     private final JMenuItem deleteButton;
     private File saveLocation = null;
     private EditableLevel currentLevel = null;
+    private boolean compressLevels = false;
     private final JFileChooser fc = new JFileChooser();
     
     public LevelEditor2DMain(String windowText) {
@@ -117,6 +121,23 @@ public abstract class LevelEditor2DMain extends JFrame {
     public EditorView getEditorView() {
         return editor;
     }
+
+    /**
+     * Sets whether levels are saved with block compression. Levels are 
+     * opened the same way whether or not they were compressed.
+     * @param compressLevels <code>true</code> to compress saved levels.
+     */
+    public void setCompressLevels(boolean compressLevels) {
+        this.compressLevels = compressLevels;
+    }
+
+    /**
+     * Gets whether levels are saved with block compression.
+     * @return <code>true</code> if saved levels are compressed.
+     */
+    public boolean isCompressLevels() {
+        return compressLevels;
+    }
         
     public void saveAs() {
         if (currentLevel != null) {
@@ -138,7 +159,11 @@ public abstract class LevelEditor2DMain extends JFrame {
                     if (saveLocation.exists()) {
                         Files.delete(saveLocation.toPath());
                     }
-                    currentLevel.saveLevel(out = Files.newOutputStream(saveLocation.toPath(), StandardOpenOption.CREATE));
+                    out = Files.newOutputStream(saveLocation.toPath(), StandardOpenOption.CREATE);
+                    if (compressLevels) {
+                        out = new BlockCompressedOutputStream(out);
+                    }
+                    currentLevel.saveLevel(out);
                     out.close();
                 } catch(IOException e) {
                     System.err.println("Could not save level: " + e);
@@ -157,8 +182,12 @@ public abstract class LevelEditor2DMain extends JFrame {
                 } else {
                     newLevel();
                 }
-                InputStream in = null;
-                currentLevel.loadLevel(in = Files.newInputStream(saveLocation.toPath(), StandardOpenOption.READ));
+                InputStream in = new BufferedInputStream(
+                        Files.newInputStream(saveLocation.toPath(), StandardOpenOption.READ));
+                if (BlockCompressedInputStream.isCompressed(in)) {
+                    in = new BlockCompressedInputStream(in);
+                }
+                currentLevel.loadLevel(in);
                 in.close();
             } catch(IOException e) {
                 System.err.println("Could not open level: " + e);
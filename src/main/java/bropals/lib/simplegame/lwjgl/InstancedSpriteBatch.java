@@ -0,0 +1,289 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.lwjgl;
+
+import bropals.lib.simplegame.logger.ErrorLogger;
+import java.nio.ByteBuffer;
+import org.lwjgl.BufferUtils;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+
+/**
+ * Draws large numbers of sprites that share one texture with a single
+ * instanced draw call.
+ * <p>
+ * Every sprite is one instance of a unit quad. The per-instance attributes
+ * (position, size, rotation, texture coordinates and tint) are collected
+ * into a buffer between <code>begin()</code> and <code>end()</code>, then
+ * streamed to OpenGL and drawn with <code>glDrawArraysInstanced</code>. If
+ * more sprites are added than the batch can hold, the batch is drawn and
+ * emptied before continuing.
+ * <p>
+ * Positions and sizes are in screen pixels, with the origin at the top left
+ * of the window.
+ *
+ * @author Jonathon
+ */
+public class InstancedSpriteBatch {
+
+    /**
+     * The number of floats stored for each instance: x, y, width, height,
+     * rotation, u0, v0, u1, v1, red, green, blue and alpha.
+     */
+    public static final int FLOATS_PER_INSTANCE = 13;
+
+    /**
+     * The number of bytes stored for each instance.
+     */
+    public static final int BYTES_PER_INSTANCE = FLOATS_PER_INSTANCE * (Float.SIZE/8);
+
+    private static final String VERTEX_SHADER_SOURCE =
+            "#version 330\n" +
+            "in vec2 corner;\n" +
+            "in vec4 instanceRect;\n" +
+            "in float instanceRotation;\n" +
+            "in vec4 instanceUV;\n" +
+            "in vec4 instanceTint;\n" +
+            "uniform vec2 screenSize;\n" +
+            "out vec2 texCoord;\n" +
+            "out vec4 tint;\n" +
+            "void main() {\n" +
+            "    vec2 local = (corner - 0.5) * instanceRect.zw;\n" +
+            "    float c = cos(instanceRotation);\n" +
+            "    float s = sin(instanceRotation);\n" +
+            "    vec2 pos = instanceRect.xy + vec2(local.x*c - local.y*s, local.x*s + local.y*c);\n" +
+            "    vec2 ndc = (pos / screenSize) * 2.0 - 1.0;\n" +
+            "    gl_Position = vec4(ndc.x, -ndc.y, 0.0, 1.0);\n" +
+            "    texCoord = mix(instanceUV.xy, instanceUV.zw, corner);\n" +
+            "    tint = instanceTint;\n" +
+            "}\n";
+
+    private static final String FRAGMENT_SHADER_SOURCE =
+            "#version 330\n" +
+            "in vec2 texCoord;\n" +
+            "in vec4 tint;\n" +
+            "uniform sampler2D sprite;\n" +
+            "out vec4 color;\n" +
+            "void main() {\n" +
+            "    color = texture(sprite, texCoord) * tint;\n" +
+            "}\n";
+
+    /**
+     * Two triangles that make up the unit quad every instance is drawn as.
+     */
+    private static final float[] QUAD = {
+        0, 0,  1, 0,  1, 1,
+        0, 0,  1, 1,  0, 1
+    };
+
+    private final LWJGLContext context;
+    private final String key;
+    private final String textureKey;
+    private final int capacity;
+    private final ByteBuffer instanceData;
+    private int instanceCount = 0;
+    private boolean drawing = false;
+
+    /**
+     * Creates a batch and the OpenGL objects it needs. The OpenGL context
+     * of the window must be current.
+     * <p>
+     * The shaders, program, buffers and vertex object are stored in the
+     * context with names that start with the given key.
+     *
+     * @param context the context to draw with.
+     * @param key the key to store the batch's OpenGL objects as.
+     * @param textureKey the key of the texture object every sprite is drawn from.
+     * @param capacity the maximum number of sprites drawn in one call.
+     */
+    public InstancedSpriteBatch(LWJGLContext context, String key,
+            String textureKey, int capacity) {
+        this.context = context;
+        this.key = key;
+        this.textureKey = textureKey;
+        this.capacity = capacity;
+        this.instanceData = BufferUtils.createByteBuffer(capacity * BYTES_PER_INSTANCE);
+        setupObjects();
+    }
+
+    private String programKey() {
+        return key + ".program";
+    }
+
+    private String quadKey() {
+        return key + ".quad";
+    }
+
+    private String instanceKey() {
+        return key + ".instances";
+    }
+
+    /**
+     * Compiles the shaders and describes the vertex format in a vertex object.
+     */
+    private void setupObjects() {
+        context.loadVertexShader(key + ".vertex", VERTEX_SHADER_SOURCE);
+        context.loadFragmentShader(key + ".fragment", FRAGMENT_SHADER_SOURCE);
+        context.createProgram(programKey(), key + ".vertex", key + ".fragment");
+
+        context.createVertexObject(key);
+        context.bindVertexObject(key);
+
+        context.bufferVertexDataFloat(quadKey(), QUAD, GL_STATIC_DRAW);
+        context.enableVertexAttribArray("corner", programKey());
+        context.vertexAttribPointer("corner", programKey(), 2, GL_FLOAT, false, 0, 0);
+
+        context.createStreamingBuffer(instanceKey(), capacity * BYTES_PER_INSTANCE);
+        instanceAttribute("instanceRect", 4, 0);
+        instanceAttribute("instanceRotation", 1, 4);
+        instanceAttribute("instanceUV", 4, 5);
+        instanceAttribute("instanceTint", 4, 9);
+
+        context.unbindVertexObject();
+        context.unbindBuffer(GL_ARRAY_BUFFER);
+    }
+
+    /**
+     * Points a shader attribute at part of the instance buffer, advancing
+     * it once per instance. The instance buffer must be bound.
+     * @param name the name of the attribute in the shader.
+     * @param size the number of floats in the attribute.
+     * @param offset the offset of the attribute in floats.
+     */
+    private void instanceAttribute(String name, int size, int offset) {
+        context.enableVertexAttribArray(name, programKey());
+        context.vertexAttribPointer(name, programKey(), size, GL_FLOAT, false,
+                BYTES_PER_INSTANCE, offset * (Float.SIZE/8));
+        context.vertexAttribDivisor(name, programKey(), 1);
+    }
+
+    /**
+     * Starts collecting sprites to draw.
+     */
+    public void begin() {
+        if (drawing) {
+            ErrorLogger.println("InstancedSpriteBatch.begin() was called twice without end()");
+        }
+        drawing = true;
+        instanceCount = 0;
+        instanceData.clear();
+    }
+
+    /**
+     * Adds a sprite that is drawn with the whole texture and no tint.
+     * @param x the x position of the center of the sprite.
+     * @param y the y position of the center of the sprite.
+     * @param width the width of the sprite.
+     * @param height the height of the sprite.
+     * @param rotation the rotation of the sprite around its center, in radians.
+     */
+    public void draw(float x, float y, float width, float height, float rotation) {
+        draw(x, y, width, height, rotation, 0, 0, 1, 1, 1, 1, 1, 1);
+    }
+
+    /**
+     * Adds a sprite to be drawn. If the batch is full, then the sprites
+     * already in it are drawn first.
+     * @param x the x position of the center of the sprite.
+     * @param y the y position of the center of the sprite.
+     * @param width the width of the sprite.
+     * @param height the height of the sprite.
+     * @param rotation the rotation of the sprite around its center, in radians.
+     * @param u0 the left texture coordinate.
+     * @param v0 the top texture coordinate.
+     * @param u1 the right texture coordinate.
+     * @param v1 the bottom texture coordinate.
+     * @param red the red tint, from 0 to 1.
+     * @param green the green tint, from 0 to 1.
+     * @param blue the blue tint, from 0 to 1.
+     * @param alpha the alpha tint, from 0 to 1.
+     */
+    public void draw(float x, float y, float width, float height, float rotation,
+            float u0, float v0, float u1, float v1,
+            float red, float green, float blue, float alpha) {
+        if (instanceCount == capacity) {
+            flush();
+        }
+        instanceData.putFloat(x).putFloat(y).putFloat(width).putFloat(height)
+                .putFloat(rotation)
+                .putFloat(u0).putFloat(v0).putFloat(u1).putFloat(v1)
+                .putFloat(red).putFloat(green).putFloat(blue).putFloat(alpha);
+        instanceCount++;
+    }
+
+    /**
+     * Streams the collected sprites to OpenGL and draws them, then empties
+     * the batch.
+     */
+    public void flush() {
+        if (instanceCount == 0) {
+            return;
+        }
+        instanceData.flip();
+        context.streamVertexData(instanceKey(), instanceData, capacity * BYTES_PER_INSTANCE);
+
+        context.useProgram(programKey());
+        int program = context.getProgram(programKey());
+        glUniform2f(glGetUniformLocation(program, "screenSize"),
+                context.getWindow().getScreenWidth(),
+                context.getWindow().getScreenHeight());
+        glUniform1i(glGetUniformLocation(program, "sprite"), 0);
+        context.setActiveTextureUnit(GL_TEXTURE0);
+        glBindTexture(GL_TEXTURE_2D, context.getTextureObject(textureKey));
+
+        context.bindVertexObject(key);
+        context.drawArraysInstanced(GL_TRIANGLES, 0, QUAD.length/2, instanceCount);
+        context.unbindVertexObject();
+
+        instanceCount = 0;
+        instanceData.clear();
+    }
+
+    /**
+     * Draws all of the sprites that were added since <code>begin()</code>.
+     */
+    public void end() {
+        flush();
+        drawing = false;
+    }
+
+    /**
+     * Gets the number of sprites waiting to be drawn.
+     * @return the number of sprites in the batch.
+     */
+    public int getInstanceCount() {
+        return instanceCount;
+    }
+
+    /**
+     * Gets the maximum number of sprites drawn in one call.
+     * @return the capacity of this batch.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -25,11 +25,11 @@
 package bropals.lib.simplegame.lwjgl;
 
 import bropals.lib.simplegame.LWJGLGameWindow;
+import bropals.lib.simplegame.io.TextLoader;
 import bropals.lib.simplegame.logger.ErrorLogger;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
 import org.lwjgl.BufferUtils;
@@ -39,6 +39,8 @@ import static org.lwjgl.opengl.GL13.*;
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL33.*;
 import static org.lwjgl.opengl.GL45.*;
 
 /**
@@ -63,6 +65,10 @@ public class LWJGLContext {
 
     private HashMap<String, Integer> vertexObjects = new HashMap<>();
 
+    private HashMap<String, Integer> framebuffers = new HashMap<>();
+
+    private HashMap<String, int[]> renderTargetSizes = new HashMap<>();
+
     /**
      * Makes a context to control rendering to a LWJGLGameWindow.
      *
@@ -81,14 +87,8 @@ public class LWJGLContext {
      * shader.
      */
     public void loadVertexShader(String key, InputStream stream) throws IOException {
-        String source = "";
-        InputStreamReader reader = new InputStreamReader(stream);
-        int in;
-        while ((in = reader.read()) != -1) {
-            source += (char) in;
-        }
-        int vert = loadShader(source, GL_VERTEX_SHADER);
-        fragmentShaders.put(key, vert);
+        int vert = loadShader(TextLoader.read(stream), GL_VERTEX_SHADER);
+        vertexShaders.put(key, vert);
     }
 
     /**
@@ -100,13 +100,7 @@ public class LWJGLContext {
      * fragment shader.
      */
     public void loadFragmentShader(String key, InputStream stream) throws IOException {
-        String source = "";
-        InputStreamReader reader = new InputStreamReader(stream);
-        int in;
-        while ((in = reader.read()) != -1) {
-            source += (char) in;
-        }
-        int frag = loadShader(source, GL_FRAGMENT_SHADER);
+        int frag = loadShader(TextLoader.read(stream), GL_FRAGMENT_SHADER);
         fragmentShaders.put(key, frag);
     }
     
@@ -132,6 +126,30 @@ public class LWJGLContext {
         fragmentShaders.put(key, frag);
     }
 
+    /**
+     * Deletes the vertex shader with the specified key, if it exists.
+     *
+     * @param key the key of the shader to delete.
+     */
+    public void deleteVertexShader(String key) {
+        Integer shader = vertexShaders.remove(key);
+        if (shader != null && shader != -1) {
+            glDeleteShader(shader);
+        }
+    }
+    
+    /**
+     * Deletes the fragment shader with the specified key, if it exists.
+     *
+     * @param key the key of the shader to delete.
+     */
+    public void deleteFragmentShader(String key) {
+        Integer shader = fragmentShaders.remove(key);
+        if (shader != null && shader != -1) {
+            glDeleteShader(shader);
+        }
+    }
+
     /**
      * Loads and compiles shader.
      *
@@ -174,6 +192,18 @@ public class LWJGLContext {
         programs.put(key, program);
     }
 
+    /**
+     * Deletes the program with the specified key, if it exists.
+     *
+     * @param key the key of the program to delete.
+     */
+    public void deleteProgram(String key) {
+        Integer program = programs.remove(key);
+        if (program != null) {
+            glDeleteProgram(program);
+        }
+    }
+
     /**
      * Buffers float vertex data and gives it a key to reference it by.
      * This method will bind the newly created buffer to GL_ARRAY_BUFFER.
@@ -209,6 +239,51 @@ public class LWJGLContext {
         buffers.put(key, buffer);
     }
     
+    /**
+     * Creates a buffer that is meant to have its contents replaced every
+     * frame, such as per-instance attribute data, and gives it a key to
+     * reference it by. The buffer is allocated with <code>GL_STREAM_DRAW</code>
+     * usage but is not filled with anything.
+     * This method will bind the newly created buffer to GL_ARRAY_BUFFER.
+     * 
+     * @param key the key of the buffer.
+     * @param bytes the capacity of the buffer in bytes.
+     */
+    public void createStreamingBuffer(String key, int bytes) {
+        int buffer = glGenBuffers();
+        glBindBuffer(GL_ARRAY_BUFFER, buffer);
+        glBufferData(GL_ARRAY_BUFFER, bytes, GL_STREAM_DRAW);
+        buffers.put(key, buffer);
+    }
+    
+    /**
+     * Replaces the contents of a buffer made with 
+     * <code>createStreamingBuffer</code>. The old storage is orphaned first
+     * so that OpenGL does not have to wait for draws that are still reading
+     * from it.
+     * This method will bind the buffer to GL_ARRAY_BUFFER.
+     * 
+     * @param key the key of the buffer.
+     * @param data the data to put in the buffer, from its position to its limit.
+     * @param capacity the capacity of the buffer in bytes that it was created with.
+     */
+    public void streamVertexData(String key, ByteBuffer data, int capacity) {
+        glBindBuffer(GL_ARRAY_BUFFER, getBuffer(key));
+        glBufferData(GL_ARRAY_BUFFER, capacity, GL_STREAM_DRAW);
+        glBufferSubData(GL_ARRAY_BUFFER, 0, data);
+    }
+    
+    /**
+     * Deletes the buffer with the specified key, if it exists.
+     * @param key the key of the buffer to delete.
+     */
+    public void deleteBuffer(String key) {
+        Integer buffer = buffers.remove(key);
+        if (buffer != null) {
+            glDeleteBuffers(buffer);
+        }
+    }
+    
     /**
      * Binds the requested buffer to the requested target.
      * @param target the target to bind the buffer to
@@ -305,6 +380,158 @@ public class LWJGLContext {
         textureObjects.put(key, texture);
     }
 
+    /**
+     * Creates an offscreen render target: a framebuffer object with a new
+     * RGBA texture object attached as its color buffer. The framebuffer
+     * and the texture object are both stored with the given key, so the
+     * rendered result can be used like any other texture object.
+     * <p>
+     * This method leaves the default framebuffer bound.
+     *
+     * @param key the key to store the render target as.
+     * @param width the width of the render target in pixels.
+     * @param height the height of the render target in pixels.
+     */
+    public void createRenderTarget(String key, int width, int height) {
+        int texture = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, texture);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, 
+                GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer)null);
+        textureObjects.put(key, texture);
+        
+        int framebuffer = glGenFramebuffers();
+        framebuffers.put(key, framebuffer);
+        renderTargetSizes.put(key, new int[]{width, height});
+        attachTexture(key, key, GL_COLOR_ATTACHMENT0);
+    }
+    
+    /**
+     * Attaches a stored texture object to a render target's framebuffer.
+     * <p>
+     * This method leaves the default framebuffer bound.
+     *
+     * @param renderTarget the key of the render target.
+     * @param texture the key of the texture object to attach.
+     * @param attachment the attachment point, such as 
+     * <code>GL_COLOR_ATTACHMENT0</code>.
+     */
+    public void attachTexture(String renderTarget, String texture, int attachment) {
+        glBindFramebuffer(GL_FRAMEBUFFER, getFramebuffer(renderTarget));
+        glFramebufferTexture2D(GL_FRAMEBUFFER, attachment, GL_TEXTURE_2D, 
+                getTextureObject(texture), 0);
+        int status = glCheckFramebufferStatus(GL_FRAMEBUFFER);
+        if (status != GL_FRAMEBUFFER_COMPLETE) {
+            ErrorLogger.println("Render target " + renderTarget + 
+                    " is not complete: status " + status);
+        }
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+    }
+    
+    /**
+     * Changes the size of a render target's color texture. Its previous
+     * contents are lost.
+     *
+     * @param key the key of the render target.
+     * @param width the new width in pixels.
+     * @param height the new height in pixels.
+     */
+    public void resizeRenderTarget(String key, int width, int height) {
+        glBindTexture(GL_TEXTURE_2D, getTextureObject(key));
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, 
+                GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer)null);
+        renderTargetSizes.put(key, new int[]{width, height});
+    }
+    
+    /**
+     * Makes all drawing go to the given render target instead of the
+     * window, and sets the viewport to cover the whole render target.
+     *
+     * @param key the key of the render target.
+     */
+    public void bindRenderTarget(String key) {
+        glBindFramebuffer(GL_FRAMEBUFFER, getFramebuffer(key));
+        int[] size = renderTargetSizes.get(key);
+        glViewport(0, 0, size[0], size[1]);
+    }
+    
+    /**
+     * Makes drawing go to the window again, and sets the viewport to cover
+     * the whole window.
+     */
+    public void unbindRenderTarget() {
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        glViewport(0, 0, window.getFramebufferWidth(), window.getFramebufferHeight());
+    }
+    
+    /**
+     * Copies a render target onto the whole window in one pass, stretching
+     * it if the sizes are different.
+     *
+     * @param key the key of the render target.
+     * @param filter the filter to use when stretching, either 
+     * <code>GL_NEAREST</code> or <code>GL_LINEAR</code>.
+     */
+    public void blitRenderTargetToWindow(String key, int filter) {
+        int[] size = renderTargetSizes.get(key);
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, getFramebuffer(key));
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
+        glBlitFramebuffer(0, 0, size[0], size[1], 
+                0, 0, window.getFramebufferWidth(), window.getFramebufferHeight(), 
+                GL_COLOR_BUFFER_BIT, filter);
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+    }
+    
+    /**
+     * Deletes a render target and its color texture object.
+     *
+     * @param key the key of the render target.
+     */
+    public void deleteRenderTarget(String key) {
+        Integer framebuffer = framebuffers.remove(key);
+        if (framebuffer != null) {
+            glDeleteFramebuffers(framebuffer);
+        }
+        Integer texture = textureObjects.remove(key);
+        if (texture != null) {
+            glDeleteTextures(texture);
+        }
+        renderTargetSizes.remove(key);
+    }
+    
+    /**
+     * Gets the OpenGL name of the specified render target's framebuffer.
+     *
+     * @param key the key of the render target.
+     * @return the framebuffer, or <code>-1</code> if it doesn't exist.
+     */
+    public int getFramebuffer(String key) {
+        return (framebuffers.get(key)!=null ? framebuffers.get(key) : -1);
+    }
+    
+    /**
+     * Gets the width of a render target.
+     *
+     * @param key the key of the render target.
+     * @return the width in pixels, or <code>-1</code> if it doesn't exist.
+     */
+    public int getRenderTargetWidth(String key) {
+        return (renderTargetSizes.get(key)!=null ? renderTargetSizes.get(key)[0] : -1);
+    }
+    
+    /**
+     * Gets the height of a render target.
+     *
+     * @param key the key of the render target.
+     * @return the height in pixels, or <code>-1</code> if it doesn't exist.
+     */
+    public int getRenderTargetHeight(String key) {
+        return (renderTargetSizes.get(key)!=null ? renderTargetSizes.get(key)[1] : -1);
+    }
+
     /**
      * Creates a new vertex object that stores a vertex data format.
      *
@@ -314,6 +541,44 @@ public class LWJGLContext {
         vertexObjects.put(key, glGenVertexArrays());
     }
 
+    /**
+     * Deletes the vertex object with the specified key, if it exists.
+     *
+     * @param key the key of the vertex object to delete.
+     */
+    public void deleteVertexObject(String key) {
+        Integer vertexObject = vertexObjects.remove(key);
+        if (vertexObject != null) {
+            glDeleteVertexArrays(vertexObject);
+        }
+    }
+
+    /**
+     * Binds the vertex object with the specified key.
+     *
+     * @param key the key of the vertex object to bind.
+     */
+    public void bindVertexObject(String key) {
+        glBindVertexArray(getVertexObject(key));
+    }
+    
+    /**
+     * Unbinds the currently bound vertex object.
+     */
+    public void unbindVertexObject() {
+        glBindVertexArray(0);
+    }
+
+    /**
+     * Gets the OpenGL name of the specified vertex object.
+     *
+     * @param key the key of the vertex object to get
+     * @return the vertex object, or <code>-1</code> if it doesn't exist.
+     */
+    public int getVertexObject(String key) {
+        return (vertexObjects.get(key)!=null ? vertexObjects.get(key) : -1);
+    }
+
     /**
      * Gets the OpenGL name of the specified vertex shader.
      *
@@ -388,6 +653,18 @@ public class LWJGLContext {
         return (textureObjects.get(key)!=null ? textureObjects.get(key) : -1);
     }
     
+    /**
+     * Deletes the texture object with the specified key, if it exists.
+     *
+     * @param key the key of the texture object to delete.
+     */
+    public void deleteTextureObject(String key) {
+        Integer texture = textureObjects.remove(key);
+        if (texture != null) {
+            glDeleteTextures(texture);
+        }
+    }
+    
     /**
      * Tell OpenGL to use the specified program, if it exists.
      *
@@ -411,7 +688,7 @@ public class LWJGLContext {
     public void vertexAttribPointer(String variableName, String program, 
             int size, int type, boolean normalized, int stride, long pointer) {
         glVertexAttribPointer(
-            glGetUniformLocation(getProgram(program), variableName),
+            glGetAttribLocation(getProgram(program), variableName),
             size, type, normalized, stride, pointer
         );
     }
@@ -436,6 +713,31 @@ public class LWJGLContext {
         glDisableVertexAttribArray(glGetAttribLocation(getProgram(program), variableName));
     }
     
+    /**
+     * Sets how often the vertex attribute associated with the variable name
+     * advances when drawing instances. A divisor of <code>0</code> advances
+     * every vertex, and a divisor of <code>1</code> advances once per
+     * instance.
+     * @param variableName the variable name of the attribute.
+     * @param program the program that contains the variable.
+     * @param divisor the number of instances that share each attribute value.
+     */
+    public void vertexAttribDivisor(String variableName, String program, int divisor) {
+        glVertexAttribDivisor(glGetAttribLocation(getProgram(program), variableName), divisor);
+    }
+    
+    /**
+     * Draws many instances of the same vertices with one draw call. The
+     * vertex attributes that have a divisor set are advanced per instance.
+     * @param mode the kind of primitives to render, such as <code>GL_TRIANGLES</code>.
+     * @param first the starting vertex in the enabled arrays.
+     * @param count the number of vertices to render for each instance.
+     * @param instances the number of instances to render.
+     */
+    public void drawArraysInstanced(int mode, int first, int count, int instances) {
+        glDrawArraysInstanced(mode, first, count, instances);
+    }
+    
     /**
      * Gets the window associated with this context.
      *
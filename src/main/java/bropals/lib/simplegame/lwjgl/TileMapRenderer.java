@@ -0,0 +1,246 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.lwjgl;
+
+import bropals.lib.simplegame.entity.tile.TileMap;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+
+/**
+ * Draws a TileMap with OpenGL.
+ * <p>
+ * Each chunk of the tile map is turned into a static vertex buffer of
+ * textured quads, relative to the map's position, the first time it becomes
+ * visible. The buffer is only rebuilt when the chunk's version in the TileMap
+ * changes, so drawing an unchanged map is one draw call per visible chunk
+ * with no uploads.
+ * <p>
+ * The tileset is loaded into a texture object with
+ * <code>LWJGLContext.loadTextureObject</code>, so it has the same
+ * requirements: it must be square with a power of 2 size.
+ *
+ * @author Jonathon
+ */
+public class TileMapRenderer {
+
+    private static final String VERTEX_SHADER_SOURCE =
+            "#version 330\n" +
+            "in vec2 position;\n" +
+            "in vec2 uv;\n" +
+            "uniform vec2 viewPosition;\n" +
+            "uniform vec2 viewSize;\n" +
+            "out vec2 texCoord;\n" +
+            "void main() {\n" +
+            "    vec2 ndc = ((position - viewPosition) / viewSize) * 2.0 - 1.0;\n" +
+            "    gl_Position = vec4(ndc.x, -ndc.y, 0.0, 1.0);\n" +
+            "    texCoord = uv;\n" +
+            "}\n";
+
+    private static final String FRAGMENT_SHADER_SOURCE =
+            "#version 330\n" +
+            "in vec2 texCoord;\n" +
+            "uniform sampler2D tileset;\n" +
+            "out vec4 color;\n" +
+            "void main() {\n" +
+            "    color = texture(tileset, texCoord);\n" +
+            "}\n";
+
+    /**
+     * The number of floats per vertex: x, y, u and v.
+     */
+    private static final int FLOATS_PER_VERTEX = 4;
+
+    /**
+     * The number of vertices per tile, which is drawn as two triangles.
+     */
+    private static final int VERTICES_PER_TILE = 6;
+
+    /**
+     * Used to give every renderer unique keys in the context.
+     */
+    private static int nextId = 0;
+
+    private final LWJGLContext context;
+    private final TileMap map;
+    private final String key;
+    private final int[] uploadedVersions;
+    private final int[] vertexCounts;
+    private final boolean[] uploaded;
+
+    /**
+     * Creates a renderer for the given tile map. The OpenGL context of the
+     * window must be current.
+     * @param context the context to draw with.
+     * @param map the tile map to draw.
+     */
+    public TileMapRenderer(LWJGLContext context, TileMap map) {
+        this.context = context;
+        this.map = map;
+        this.key = "TileMap" + (nextId++);
+        int chunks = map.getChunkColumns() * map.getChunkRows();
+        uploadedVersions = new int[chunks];
+        vertexCounts = new int[chunks];
+        uploaded = new boolean[chunks];
+
+        context.loadVertexShader(key + ".vertex", VERTEX_SHADER_SOURCE);
+        context.loadFragmentShader(key + ".fragment", FRAGMENT_SHADER_SOURCE);
+        context.createProgram(programKey(), key + ".vertex", key + ".fragment");
+        context.createVertexObject(key);
+        context.loadTextureObject(textureKey(), map.getTileset(), 4);
+    }
+
+    private String programKey() {
+        return key + ".program";
+    }
+
+    private String textureKey() {
+        return key + ".tileset";
+    }
+
+    private String chunkKey(int chunk) {
+        return key + ".chunk" + chunk;
+    }
+
+    /**
+     * Draws the chunks of the tile map that overlap the view.
+     * @param viewX the x position of the view in world coordinates.
+     * @param viewY the y position of the view in world coordinates.
+     * @param viewWidth the width of the view.
+     * @param viewHeight the height of the view.
+     */
+    public void render(float viewX, float viewY, float viewWidth, float viewHeight) {
+        context.useProgram(programKey());
+        int program = context.getProgram(programKey());
+        glUniform2f(glGetUniformLocation(program, "viewPosition"),
+                viewX - map.getX(), viewY - map.getY());
+        glUniform2f(glGetUniformLocation(program, "viewSize"), viewWidth, viewHeight);
+        glUniform1i(glGetUniformLocation(program, "tileset"), 0);
+        context.setActiveTextureUnit(GL_TEXTURE0);
+        glBindTexture(GL_TEXTURE_2D, context.getTextureObject(textureKey()));
+        context.bindVertexObject(key);
+        context.enableVertexAttribArray("position", programKey());
+        context.enableVertexAttribArray("uv", programKey());
+
+        int firstColumn = map.getFirstVisibleChunkColumn(viewX);
+        int lastColumn = map.getLastVisibleChunkColumn(viewX + viewWidth);
+        int firstRow = map.getFirstVisibleChunkRow(viewY);
+        int lastRow = map.getLastVisibleChunkRow(viewY + viewHeight);
+        for (int cy=firstRow; cy<=lastRow; cy++) {
+            for (int cx=firstColumn; cx<=lastColumn; cx++) {
+                int chunk = cy * map.getChunkColumns() + cx;
+                int version = map.getChunkVersion(cx, cy);
+                if (!uploaded[chunk] || uploadedVersions[chunk] != version) {
+                    uploadChunk(chunk, cx, cy);
+                    uploadedVersions[chunk] = version;
+                    uploaded[chunk] = true;
+                }
+                if (vertexCounts[chunk] == 0) {
+                    continue;
+                }
+                context.bindBufferTo(GL_ARRAY_BUFFER, chunkKey(chunk));
+                int stride = FLOATS_PER_VERTEX * (Float.SIZE/8);
+                context.vertexAttribPointer("position", programKey(), 2, GL_FLOAT, false, stride, 0);
+                context.vertexAttribPointer("uv", programKey(), 2, GL_FLOAT, false, stride, 2 * (Float.SIZE/8));
+                glDrawArrays(GL_TRIANGLES, 0, vertexCounts[chunk]);
+            }
+        }
+        context.unbindBuffer(GL_ARRAY_BUFFER);
+        context.unbindVertexObject();
+    }
+
+    /**
+     * Builds the quads for every tile in a chunk and replaces the chunk's
+     * vertex buffer with them.
+     * @param chunk the index of the chunk.
+     * @param chunkColumn the column of the chunk.
+     * @param chunkRow the row of the chunk.
+     */
+    private void uploadChunk(int chunk, int chunkColumn, int chunkRow) {
+        int size = map.getChunkSize();
+        int endColumn = Math.min(map.getColumns(), (chunkColumn + 1) * size);
+        int endRow = Math.min(map.getRows(), (chunkRow + 1) * size);
+        int tilesetColumns = map.getTilesetColumns();
+        float tw = map.getTileWidth(), th = map.getTileHeight();
+        float uScale = tw / map.getTileset().getWidth();
+        float vScale = th / map.getTileset().getHeight();
+
+        float[] data = new float[size * size * VERTICES_PER_TILE * FLOATS_PER_VERTEX];
+        int i = 0;
+        for (int row=chunkRow * size; row<endRow; row++) {
+            for (int column=chunkColumn * size; column<endColumn; column++) {
+                short tile = map.getTile(column, row);
+                if (tile == TileMap.EMPTY) {
+                    continue;
+                }
+                float x0 = column * tw, y0 = row * th;
+                float x1 = x0 + tw, y1 = y0 + th;
+                float u0 = (tile % tilesetColumns) * uScale;
+                float v0 = (tile / tilesetColumns) * vScale;
+                float u1 = u0 + uScale, v1 = v0 + vScale;
+                i = putVertex(data, i, x0, y0, u0, v0);
+                i = putVertex(data, i, x1, y0, u1, v0);
+                i = putVertex(data, i, x1, y1, u1, v1);
+                i = putVertex(data, i, x0, y0, u0, v0);
+                i = putVertex(data, i, x1, y1, u1, v1);
+                i = putVertex(data, i, x0, y1, u0, v1);
+            }
+        }
+
+        context.deleteBuffer(chunkKey(chunk));
+        vertexCounts[chunk] = i / FLOATS_PER_VERTEX;
+        if (i > 0) {
+            float[] used = new float[i];
+            System.arraycopy(data, 0, used, 0, i);
+            context.bufferVertexDataFloat(chunkKey(chunk), used, GL_STATIC_DRAW);
+        }
+    }
+
+    private int putVertex(float[] data, int i, float x, float y, float u, float v) {
+        data[i] = x;
+        data[i+1] = y;
+        data[i+2] = u;
+        data[i+3] = v;
+        return i + FLOATS_PER_VERTEX;
+    }
+
+    /**
+     * Deletes the vertex buffers of every chunk, along with the shaders,
+     * program, vertex object and tileset texture of this renderer. The 
+     * renderer should not be used afterwards.
+     */
+    public void dispose() {
+        for (int i=0; i<uploaded.length; i++) {
+            context.deleteBuffer(chunkKey(i));
+            uploaded[i] = false;
+        }
+        context.deleteProgram(programKey());
+        context.deleteVertexShader(key + ".vertex");
+        context.deleteFragmentShader(key + ".fragment");
+        context.deleteVertexObject(key);
+        context.deleteTextureObject(textureKey());
+    }
+}
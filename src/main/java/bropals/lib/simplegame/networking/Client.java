@@ -24,15 +24,21 @@
 package bropals.lib.simplegame.networking;
 
 import bropals.lib.simplegame.logger.ErrorLogger;
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintStream;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 
 /**
  * Implements the client-side of a basic client-server program.
+ * <p>
+ * Messages are sent as length-prefixed binary frames built with a 
+ * {@link MessageWriter}. String messages are sent as frames with the id 
+ * <code>MessageWriter.STRING_MESSAGE</code>.
  * @author Jonathon
  */
 public class Client extends Thread {
@@ -44,15 +50,19 @@ public class Client extends Thread {
     /**
      * The reader for the client's socket.
      */
-    private BufferedReader fromServer;
+    private DataInputStream fromServer;
     /**
      * The writer for the client's socket
      */
-    private PrintStream toServer;
+    private DataOutputStream toServer;
     /**
      * The message handler that is listener to messages for this client.
      */
-    private final ClientMessageHandler messageHandler;
+    private final ClientBinaryMessageHandler messageHandler;
+    /**
+     * Holds the message that is being handled.
+     */
+    private final MessageReader reader = new MessageReader();
     /**
      * Whether or not this client's ClientMessageHandler is listening for messages.
      */
@@ -68,10 +78,24 @@ public class Client extends Thread {
      *  server.
      */
     public Client(InetAddress address, int port, ClientMessageHandler messageHandler) throws IOException {
+        this(address, port, new StringMessageAdapter(messageHandler));
+    }
+    
+    /**
+     * Creates a new client that handles binary messages and attempts to 
+     * connect it at the specified address.
+     * @param address the address of the server to connect to
+     * @param port the port number. Should be the same as the server's port.
+     * @param messageHandler the message handler that this Client should use.
+     * @throws IOException thrown is something goes wrong in connecting to the
+     *  server.
+     */
+    public Client(InetAddress address, int port, ClientBinaryMessageHandler messageHandler) throws IOException {
         socket = new Socket(address, port);
+        socket.setTcpNoDelay(true);
         this.messageHandler = messageHandler;
-        fromServer = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        toServer = new PrintStream(socket.getOutputStream(), true);
+        fromServer = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        toServer = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
     }
     
     /**
@@ -100,7 +124,26 @@ public class Client extends Thread {
      * @param message The message being sent to the server
      */
     public void sendMessageToServer(String message) {
-        toServer.println(message);
+        send(MessageWriter.forString(message));
+    }
+    
+    /**
+     * Send a binary message to the server the client is connected to. The
+     * writer is returned to its pool and must not be used afterwards.
+     * @param message The message being sent to the server
+     */
+    public void send(MessageWriter message) {
+        try {
+            ByteBuffer frame = message.finish();
+            synchronized(toServer) {
+                toServer.write(frame.array(), 0, frame.limit());
+                toServer.flush();
+            }
+        } catch(IOException e) {
+            ErrorLogger.println("Unable to send a message to the server: " + e);
+        } finally {
+            message.release();
+        }
     }
     
     /**
@@ -114,13 +157,17 @@ public class Client extends Thread {
     @Override
     public void run() {
         try {
-            String str;
-            while (running && (str = fromServer.readLine()) != null ) {
-                messageHandler.handleMessage(this, str);
+            while (running && reader.readFrame(fromServer)) {
+                messageHandler.handleMessage(this, reader);
             }
         } catch(IOException e) {
             ErrorLogger.println("Error in client while communicating with "
              + " the server: " + e);
+        } catch(RuntimeException e) {
+            ErrorLogger.println("The message handler failed on a message "
+             + "from the server: " + e);
+        } finally {
+            closeClient();
         }
     }    
 }
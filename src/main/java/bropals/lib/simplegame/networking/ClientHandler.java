@@ -25,21 +25,31 @@ package bropals.lib.simplegame.networking;
 
 import bropals.lib.simplegame.logger.ErrorLogger;
 import bropals.lib.simplegame.logger.InfoLogger;
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Contains the skeleton to receive messages to the server by the client, and to
  * send messages to the client by the server.
  *
  * This object represents a connection to a client object by the server.
+ * <p>
+ * With the {@link ServerMode#THREAD_PER_CLIENT} mode, the server runs each
+ * handler on its own thread, which blocks while reading from the client. 
+ * {@link ServerMode#VIRTUAL_THREAD_PER_CLIENT} does the same on a virtual
+ * thread.
+ * With {@link ServerMode#SELECTOR}, the handler only wraps a connection 
+ * that the server's selector thread reads from and writes to.
  * 
  * @author Jonathon
  */
-public class ClientHandler extends Thread {
+public class ClientHandler implements Runnable {
 
     /**
      * The last given ID number to a client.
@@ -55,6 +65,10 @@ public class ClientHandler extends Thread {
         return currentId;
     }
 
+    /**
+     * The name of this client handler, which is unique on the server.
+     */
+    private final String name;
     /**
      * The server that this client handler will send messages to.
      */
@@ -66,15 +80,30 @@ public class ClientHandler extends Thread {
     /**
      * The reader that reads messages from the connected client.
      */
-    private BufferedReader fromClient;
+    private DataInputStream fromClient;
     /**
      * The writer used to write messages to the connected client.
      */
-    private PrintStream toClient;
+    private DataOutputStream toClient;
+    /**
+     * The non-blocking connection to the client, if the server uses a
+     * selector.
+     */
+    private final SelectorConnection connection;
     /**
      * The message handler for the server.
      */
-    private ServerMessageHandler serverMessageHandler;
+    private ServerBinaryMessageHandler serverMessageHandler;
+    /**
+     * Holds the message that is being handled.
+     */
+    private final MessageReader reader = new MessageReader();
+    /**
+     * Lets one thread at a time write to the client. This is a lock rather 
+     * than a synchronized block so that a virtual thread blocked while 
+     * writing does not hold onto its carrier thread.
+     */
+    private final ReentrantLock sendLock = new ReentrantLock();
 
     /**
      * Creates a client handler. Should only be called by the Server object.
@@ -84,35 +113,93 @@ public class ClientHandler extends Thread {
      * @param serverMessageHandler the message handler to use for this
      * ClientHandler.
      */
-    ClientHandler(Server server, Socket socket, ServerMessageHandler serverMessageHandler) throws IOException {
-        super("Client " + nextId());
+    ClientHandler(Server server, Socket socket, ServerBinaryMessageHandler serverMessageHandler) throws IOException {
+        this.name = "Client " + nextId();
         this.server = server;
         this.socket = socket;
+        this.connection = null;
         this.serverMessageHandler = serverMessageHandler;
-        fromClient = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        toClient = new PrintStream(socket.getOutputStream(), true);
+        socket.setTcpNoDelay(true);
+        fromClient = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        toClient = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
     }
 
+    /**
+     * Creates a client handler for a non-blocking connection. Should only be
+     * called by the Server object.
+     *
+     * @param server the server that is keeping track of this client handler.
+     * @param connection the connection that this ClientHandler is wrapping.
+     * @param serverMessageHandler the message handler to use for this
+     * ClientHandler.
+     */
+    ClientHandler(Server server, SelectorConnection connection, 
+            ServerBinaryMessageHandler serverMessageHandler) {
+        this.name = "Client " + nextId();
+        this.server = server;
+        this.connection = connection;
+        this.serverMessageHandler = serverMessageHandler;
+    }
+    
+    /**
+     * Gets the name of this client handler, which is unique on the server.
+     * @return the name of this client handler.
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Passes a message read by the selector thread to the message handler.
+     * @param message the message from the client.
+     */
+    void handleMessage(MessageReader message) {
+        serverMessageHandler.handleMessage(server, this, message);
+    }
+
+    /**
+     * Reads messages from the client until it disconnects. This is only 
+     * used with a blocking connection. A message that the message handler
+     * fails on, such as a malformed one, disconnects the client.
+     */
     @Override
     public void run() {
+        if (connection != null) {
+            throw new IllegalStateException("A selector connection is not run on a thread");
+        }
         try {
-            String str;
-            while ((str = fromClient.readLine()) != null) {
-                serverMessageHandler.handleMessage(server, this, str);
+            while (reader.readFrame(fromClient)) {
+                serverMessageHandler.handleMessage(server, this, reader);
             }
-            fromClient.close();
-            toClient.flush();
-            toClient.close();
-            socket.close();
         } catch (IOException e) {
             ErrorLogger.println("Error in server while communicating with "
                     + "client: " + e);
+        } catch (RuntimeException e) {
+            ErrorLogger.println("The message handler failed for " 
+                    + getName() + ": " + e);
+        } finally {
+            close();
+            InfoLogger.println("ClientHandler lost connection to its client: "
+                    + "removing handler");
+            this.server.removeHandler(this);
+            server = null;
+            socket = null;
+        }
+    }
+    
+    /**
+     * Closes the socket to the client.
+     */
+    private void close() {
+        sendLock.lock();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            ErrorLogger.println("Unable to close the connection to " 
+                    + getName() + ": " + e);
+        } finally {
+            sendLock.unlock();
         }
-        InfoLogger.println("ClientHandler lost connection to its client: "
-                + "removing handler");
-        this.server.removeHandler(this);
-        server = null;
-        socket = null;
     }
     
     /**
@@ -120,6 +207,42 @@ public class ClientHandler extends Thread {
      * @param message The message to send.
      */
     public void sendMessageToClient(String message) {
-        toClient.println(message);
+        send(MessageWriter.forString(message));
+    }
+    
+    /**
+     * Send a binary message to the connected client. The writer is returned
+     * to its pool and must not be used afterwards.
+     * @param message The message to send.
+     */
+    public void send(MessageWriter message) {
+        try {
+            sendFrame(message.finish());
+        } finally {
+            message.release();
+        }
+    }
+    
+    /**
+     * Writes a finished frame to the client without changing it, so the
+     * same frame can be sent to many clients.
+     * @param frame the frame, from position 0 to the limit.
+     */
+    void sendFrame(ByteBuffer frame) {
+        if (connection != null) {
+            connection.queue(frame);
+            return;
+        }
+        try {
+            sendLock.lock();
+            try {
+                toClient.write(frame.array(), 0, frame.limit());
+                toClient.flush();
+            } finally {
+                sendLock.unlock();
+            }
+        } catch(IOException e) {
+            ErrorLogger.println("Unable to send a message to " + getName() + ": " + e);
+        }
     }
 }
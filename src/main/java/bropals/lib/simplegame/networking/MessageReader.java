@@ -0,0 +1,206 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.networking;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the values of a binary message that was sent with a 
+ * {@link MessageWriter}. 
+ * <p>
+ * A reader is given to a message handler and is reused for the next 
+ * message from the same connection, so it should only be used while the
+ * handler is running. Values must be read in the order they were written.
+ * Reading past the end of the message throws a 
+ * <code>BufferUnderflowException</code>.
+ * 
+ * @author Jonathon
+ */
+public class MessageReader {
+    
+    private ByteBuffer buffer = ByteBuffer.allocate(256);
+    private int messageId;
+    
+    MessageReader() {
+    }
+    
+    /**
+     * Reads the next frame from a blocking stream into this reader.
+     * @param in the stream to read from.
+     * @return <code>false</code> if the stream ended before the frame.
+     * @throws IOException if the frame could not be read or is too large.
+     */
+    boolean readFrame(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch(EOFException e) {
+            return false;
+        }
+        checkLength(length);
+        ByteBuffer frame = prepare(length);
+        in.readFully(frame.array(), 0, length);
+        begin();
+        return true;
+    }
+    
+    /**
+     * Checks that a frame length read from a connection is allowed.
+     */
+    static void checkLength(int length) throws IOException {
+        if (length < MessageWriter.HEADER_SIZE - 4 || length > MessageWriter.MAX_MESSAGE_SIZE) {
+            throw new IOException("Invalid message length " + length);
+        }
+    }
+    
+    /**
+     * Gets an empty buffer with room for a frame of the given length, 
+     * without the length. Fill it, then call <code>begin</code>.
+     */
+    ByteBuffer prepare(int length) {
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+        }
+        buffer.clear();
+        buffer.limit(length);
+        return buffer;
+    }
+    
+    /**
+     * Starts reading a frame that was put in the buffer from 
+     * <code>prepare</code>.
+     */
+    void begin() {
+        buffer.position(0);
+        messageId = buffer.getShort() & 0xFFFF;
+    }
+    
+    /**
+     * Gets the id of the message, which tells what kind of message it is.
+     * @return the message id.
+     */
+    public int getMessageId() {
+        return messageId;
+    }
+    
+    /**
+     * Gets the number of bytes left to read in the message.
+     * @return the number of bytes left.
+     */
+    public int getRemaining() {
+        return buffer.remaining();
+    }
+    
+    /**
+     * Reads a byte.
+     * @return the byte.
+     */
+    public byte readByte() {
+        return buffer.get();
+    }
+    
+    /**
+     * Reads a boolean.
+     * @return the boolean.
+     */
+    public boolean readBoolean() {
+        return buffer.get() != 0;
+    }
+    
+    /**
+     * Reads a short.
+     * @return the short.
+     */
+    public short readShort() {
+        return buffer.getShort();
+    }
+    
+    /**
+     * Reads an integer.
+     * @return the integer.
+     */
+    public int readInt() {
+        return buffer.getInt();
+    }
+    
+    /**
+     * Reads a long.
+     * @return the long.
+     */
+    public long readLong() {
+        return buffer.getLong();
+    }
+    
+    /**
+     * Reads a float.
+     * @return the float.
+     */
+    public float readFloat() {
+        return buffer.getFloat();
+    }
+    
+    /**
+     * Reads a double.
+     * @return the double.
+     */
+    public double readDouble() {
+        return buffer.getDouble();
+    }
+    
+    /**
+     * Reads a String.
+     * @return the String.
+     */
+    public String readString() {
+        int length = readLength();
+        String str = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), 
+                length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return str;
+    }
+    
+    /**
+     * Reads an array of bytes.
+     * @return the bytes.
+     */
+    public byte[] readBytes() {
+        byte[] bytes = new byte[readLength()];
+        buffer.get(bytes);
+        return bytes;
+    }
+    
+    private int readLength() {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.networking;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds a binary message to send to a client or a server.
+ * <p>
+ * Get a writer with <code>obtain</code>, write the message's values to it 
+ * and give it to <code>Client.send</code> or <code>ClientHandler.send</code>.
+ * Sending a writer returns it to a pool so its buffer can be used again, 
+ * so a writer must not be used after it is sent. Call <code>release</code> 
+ * to return a writer that is not going to be sent.
+ * <p>
+ * A message is sent as a frame: an int that is the number of bytes after it,
+ * a short that is the message id, then the values that were written. Numbers
+ * are big-endian and strings are an int byte length followed by UTF-8 bytes.
+ * 
+ * @author Jonathon
+ */
+public class MessageWriter {
+    
+    /**
+     * The id of messages sent with the String methods of Client and 
+     * ClientHandler. Other messages should not use this id.
+     */
+    public static final int STRING_MESSAGE = 0;
+    
+    /**
+     * The largest number of bytes in a frame after the length.
+     */
+    public static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+    
+    static final int HEADER_SIZE = 6;
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+    private static final int MAX_POOLED = 64;
+    
+    private static final Queue<MessageWriter> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+    
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+    private int messageId;
+    private boolean released = false;
+    
+    private MessageWriter() {
+    }
+    
+    /**
+     * Gets an empty writer for a message.
+     * @param messageId the id that tells the receiver what kind of message 
+     * this is, from 0 to 65535.
+     * @return the writer.
+     */
+    public static MessageWriter obtain(int messageId) {
+        if (messageId < 0 || messageId > 0xFFFF) {
+            throw new IllegalArgumentException("Message ids must be from 0 to 65535");
+        }
+        MessageWriter writer = pool.poll();
+        if (writer == null) {
+            writer = new MessageWriter();
+        } else {
+            pooled.decrementAndGet();
+        }
+        writer.released = false;
+        writer.messageId = messageId;
+        writer.buffer.clear();
+        writer.buffer.position(HEADER_SIZE);
+        return writer;
+    }
+    
+    /**
+     * Makes a writer for a String message.
+     * @param message the message.
+     * @return the writer.
+     */
+    static MessageWriter forString(String message) {
+        MessageWriter writer = obtain(STRING_MESSAGE);
+        writer.writeString(message);
+        return writer;
+    }
+    
+    /**
+     * Returns this writer to the pool. It must not be used afterwards.
+     */
+    public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (buffer.capacity() > MAX_POOLED_CAPACITY) {
+            buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+        }
+        if (pooled.incrementAndGet() <= MAX_POOLED) {
+            pool.add(this);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+    
+    /**
+     * Gets the id of the message being written.
+     * @return the message id.
+     */
+    public int getMessageId() {
+        return messageId;
+    }
+    
+    /**
+     * Gets the number of bytes that have been written to the message.
+     * @return the size of the message's values.
+     */
+    public int getSize() {
+        return buffer.position() - HEADER_SIZE;
+    }
+    
+    private void ensureRemaining(int count) {
+        if (released) {
+            throw new IllegalStateException("The writer was already sent or released");
+        }
+        if (buffer.remaining() < count) {
+            int needed = buffer.position() + count;
+            if (needed - 4 > MAX_MESSAGE_SIZE) {
+                throw new IllegalStateException("Messages can not be larger than " 
+                        + MAX_MESSAGE_SIZE + " bytes");
+            }
+            ByteBuffer bigger = ByteBuffer.allocate(
+                    Math.max(needed, buffer.capacity() * 2));
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+    }
+    
+    /**
+     * Writes a byte.
+     * @param b the byte to write.
+     * @return this writer.
+     */
+    public MessageWriter writeByte(byte b) {
+        ensureRemaining(1);
+        buffer.put(b);
+        return this;
+    }
+    
+    /**
+     * Writes a boolean as a byte that is 1 or 0.
+     * @param b the boolean to write.
+     * @return this writer.
+     */
+    public MessageWriter writeBoolean(boolean b) {
+        return writeByte(b ? (byte)1 : (byte)0);
+    }
+    
+    /**
+     * Writes a short.
+     * @param s the short to write.
+     * @return this writer.
+     */
+    public MessageWriter writeShort(short s) {
+        ensureRemaining(2);
+        buffer.putShort(s);
+        return this;
+    }
+    
+    /**
+     * Writes an integer.
+     * @param i the integer to write.
+     * @return this writer.
+     */
+    public MessageWriter writeInt(int i) {
+        ensureRemaining(4);
+        buffer.putInt(i);
+        return this;
+    }
+    
+    /**
+     * Writes a long.
+     * @param l the long to write.
+     * @return this writer.
+     */
+    public MessageWriter writeLong(long l) {
+        ensureRemaining(8);
+        buffer.putLong(l);
+        return this;
+    }
+    
+    /**
+     * Writes a float.
+     * @param f the float to write.
+     * @return this writer.
+     */
+    public MessageWriter writeFloat(float f) {
+        ensureRemaining(4);
+        buffer.putFloat(f);
+        return this;
+    }
+    
+    /**
+     * Writes a double.
+     * @param d the double to write.
+     * @return this writer.
+     */
+    public MessageWriter writeDouble(double d) {
+        ensureRemaining(8);
+        buffer.putDouble(d);
+        return this;
+    }
+    
+    /**
+     * Writes a String as its UTF-8 byte length followed by the bytes.
+     * @param str the String to write.
+     * @return this writer.
+     */
+    public MessageWriter writeString(String str) {
+        return writeBytes(str.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Writes an array of bytes as its length followed by the bytes.
+     * @param bytes the bytes to write.
+     * @return this writer.
+     */
+    public MessageWriter writeBytes(byte[] bytes) {
+        ensureRemaining(4 + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+        return this;
+    }
+    
+    /**
+     * Fills in the frame header and gets the frame, from position 0 to the
+     * limit.
+     * @return the buffer holding the whole frame.
+     */
+    ByteBuffer finish() {
+        if (released) {
+            throw new IllegalStateException("The writer was already sent or released");
+        }
+        buffer.putInt(0, buffer.position() - 4);
+        buffer.putShort(4, (short)messageId);
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.networking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A non-blocking connection to a client that is served by a 
+ * {@link SelectorLoop}. 
+ * <p>
+ * Reads and writes only happen on the selector thread. Frames can be queued
+ * from any thread; they are copied, and the selector thread is asked to 
+ * write them. A client that stops reading is disconnected once too many 
+ * bytes are waiting to be written to it.
+ * @author Jonathon
+ */
+class SelectorConnection {
+    
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    
+    /**
+     * The largest number of bytes that can wait to be written to a client.
+     */
+    static final int MAX_QUEUED_BYTES = 4 * 1024 * 1024;
+    
+    private final SelectorLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private ClientHandler handler;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final MessageReader reader = new MessageReader();
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedBytes = new AtomicInteger();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private volatile boolean overflowed = false;
+    private volatile boolean closed = false;
+    
+    SelectorConnection(SelectorLoop loop, SocketChannel channel, SelectionKey key) {
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+    }
+    
+    void setHandler(ClientHandler handler) {
+        this.handler = handler;
+    }
+    
+    ClientHandler getHandler() {
+        return handler;
+    }
+    
+    /**
+     * Queues a copy of a frame to be written to the client. This can be
+     * called from any thread.
+     * @param frame the frame, from position 0 to the limit.
+     */
+    void queue(ByteBuffer frame) {
+        if (closed || overflowed) {
+            return;
+        }
+        int size = frame.limit();
+        if (queuedBytes.addAndGet(size) > MAX_QUEUED_BYTES) {
+            queuedBytes.addAndGet(-size);
+            overflowed = true;
+        } else {
+            writeQueue.add(ByteBuffer.wrap(Arrays.copyOf(frame.array(), size)));
+        }
+        if (writeScheduled.compareAndSet(false, true)) {
+            loop.scheduleWrite(this);
+        }
+    }
+    
+    boolean isOverflowed() {
+        return overflowed;
+    }
+    
+    boolean isClosed() {
+        return closed;
+    }
+    
+    /**
+     * Reads what the client has sent and handles every whole message in it.
+     * Called on the selector thread.
+     * @return <code>false</code> if the client closed the connection.
+     * @throws IOException if the connection failed or a message was invalid.
+     */
+    boolean read() throws IOException {
+        int count = channel.read(readBuffer);
+        if (count == -1) {
+            return false;
+        }
+        readBuffer.flip();
+        while (readBuffer.remaining() >= 4 && !closed) {
+            int length = readBuffer.getInt(readBuffer.position());
+            MessageReader.checkLength(length);
+            if (readBuffer.remaining() < 4 + length) {
+                break;
+            }
+            readBuffer.position(readBuffer.position() + 4);
+            ByteBuffer frame = reader.prepare(length);
+            int limit = readBuffer.limit();
+            readBuffer.limit(readBuffer.position() + length);
+            frame.put(readBuffer);
+            readBuffer.limit(limit);
+            reader.begin();
+            handler.handleMessage(reader);
+        }
+        readBuffer.compact();
+        if (!readBuffer.hasRemaining() && !closed) {
+            // a message does not fit: grow as its bytes arrive instead of
+            // trusting the length the client claims
+            int needed = 4 + readBuffer.getInt(0);
+            readBuffer.flip();
+            ByteBuffer bigger = ByteBuffer.allocate(
+                    Math.min(readBuffer.capacity() * 2, needed));
+            bigger.put(readBuffer);
+            readBuffer = bigger;
+        } else if (readBuffer.capacity() > READ_BUFFER_SIZE && readBuffer.position() <= READ_BUFFER_SIZE) {
+            // go back to the normal size after a large message
+            readBuffer.flip();
+            ByteBuffer smaller = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            smaller.put(readBuffer);
+            readBuffer = smaller;
+        }
+        return true;
+    }
+    
+    /**
+     * Writes as much of the queue as the socket will take. Called on the 
+     * selector thread.
+     * @throws IOException if the connection failed.
+     */
+    void write() throws IOException {
+        writeScheduled.set(false);
+        ByteBuffer buffer;
+        while ((buffer = writeQueue.peek()) != null) {
+            channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            writeQueue.poll();
+            queuedBytes.addAndGet(-buffer.limit());
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+    
+    /**
+     * Closes the connection. Called on the selector thread.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        key.cancel();
+        try {
+            channel.close();
+        } catch(IOException e) {
+            // the connection is being thrown away anyway
+        }
+        writeQueue.clear();
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.networking;
+
+import bropals.lib.simplegame.logger.ErrorLogger;
+import bropals.lib.simplegame.logger.InfoLogger;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Accepts clients and serves all of their connections on one thread with a
+ * Selector, for a server using {@link ServerMode#SELECTOR}.
+ * @author Jonathon
+ */
+class SelectorLoop {
+    
+    /**
+     * How many connections can wait to be accepted.
+     */
+    private static final int BACKLOG = 1024;
+    
+    /**
+     * How long to stop accepting clients after accepting one failed, such
+     * as when the process has run out of file descriptors.
+     */
+    private static final long ACCEPT_RETRY_MILLIS = 100;
+    
+    private final Server server;
+    private final ServerBinaryMessageHandler messageHandler;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final SelectionKey serverKey;
+    private final Queue<SelectorConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private volatile Thread thread = null;
+    private volatile boolean running = false;
+    private long acceptPausedUntil = 0;
+    
+    SelectorLoop(Server server, int port, ServerBinaryMessageHandler messageHandler) 
+            throws IOException {
+        this.server = server;
+        this.messageHandler = messageHandler;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(port), BACKLOG);
+            serverChannel.configureBlocking(false);
+            serverKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch(IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Serves clients on the calling thread until <code>stop</code> is called.
+     */
+    void run() {
+        thread = Thread.currentThread();
+        running = true;
+        try {
+            while (running) {
+                writePending();
+                if (acceptPausedUntil != 0) {
+                    resumeAccepting();
+                }
+                if (acceptPausedUntil != 0) {
+                    selector.select(ACCEPT_RETRY_MILLIS);
+                } else {
+                    selector.select();
+                }
+                if (!running) {
+                    break;
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        serve(key);
+                    }
+                }
+            }
+        } catch(IOException e) {
+            ErrorLogger.println("An error occured in the server: " + e);
+        } finally {
+            running = false;
+            closeAll();
+        }
+    }
+    
+    /**
+     * Accepts every waiting client. A client that can not be accepted is
+     * logged and the server keeps serving the clients it has.
+     */
+    private void accept() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch(IOException e) {
+                ErrorLogger.println("Unable to accept a client: " + e);
+                // stop accepting for a while instead of failing on every select
+                serverKey.interestOps(0);
+                acceptPausedUntil = System.currentTimeMillis() + ACCEPT_RETRY_MILLIS;
+                return;
+            }
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                SelectorConnection connection = new SelectorConnection(this, channel, key);
+                ClientHandler handler = new ClientHandler(server, connection, messageHandler);
+                connection.setHandler(handler);
+                key.attach(connection);
+                server.addHandler(handler);
+            } catch(IOException e) {
+                ErrorLogger.println("Unable to set up the connection to a client: " + e);
+                try {
+                    channel.close();
+                } catch(IOException closeError) {
+                    // the connection is being thrown away anyway
+                }
+            }
+        }
+    }
+    
+    private void resumeAccepting() {
+        if (System.currentTimeMillis() >= acceptPausedUntil) {
+            acceptPausedUntil = 0;
+            serverKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
+    
+    private void serve(SelectionKey key) {
+        SelectorConnection connection = (SelectorConnection)key.attachment();
+        try {
+            if (key.isReadable() && !connection.read()) {
+                disconnect(connection, null);
+                return;
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.write();
+            }
+        } catch(IOException | CancelledKeyException e) {
+            disconnect(connection, e);
+        } catch(RuntimeException e) {
+            ErrorLogger.println("The message handler failed for " 
+                    + connection.getHandler().getName() + ": " + e);
+            disconnect(connection, null);
+        }
+    }
+    
+    private void writePending() {
+        SelectorConnection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            if (connection.isClosed()) {
+                continue;
+            }
+            if (connection.isOverflowed()) {
+                ErrorLogger.println(connection.getHandler().getName() 
+                        + " is not reading its messages: disconnecting it");
+                disconnect(connection, null);
+                continue;
+            }
+            try {
+                connection.write();
+            } catch(IOException | CancelledKeyException e) {
+                disconnect(connection, e);
+            }
+        }
+    }
+    
+    private void disconnect(SelectorConnection connection, Exception cause) {
+        if (connection.isClosed()) {
+            return;
+        }
+        if (cause != null) {
+            ErrorLogger.println("Error in server while communicating with "
+                    + "client: " + cause);
+        }
+        connection.close();
+        InfoLogger.println("ClientHandler lost connection to its client: "
+                + "removing handler");
+        server.removeHandler(connection.getHandler());
+    }
+    
+    private void closeAll() {
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+            if (key.attachment() instanceof SelectorConnection) {
+                disconnect((SelectorConnection)key.attachment(), null);
+            }
+        }
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch(IOException e) {
+            ErrorLogger.println("Unable to close the server: " + e);
+        }
+    }
+    
+    /**
+     * Asks the selector thread to write a connection's queue. This can be
+     * called from any thread.
+     */
+    void scheduleWrite(SelectorConnection connection) {
+        pendingWrites.add(connection);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+    
+    /**
+     * Stops the selector thread, which disconnects every client.
+     */
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+}
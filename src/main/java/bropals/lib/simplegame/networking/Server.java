@@ -28,12 +28,19 @@ import bropals.lib.simplegame.logger.InfoLogger;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 /**
  * Implements the server-side of a basic client-server system.
+ * <p>
+ * By default every client is served on its own thread. A server made with
+ * {@link ServerMode#SELECTOR} serves every client on the thread that calls
+ * <code>startServer</code> with non-blocking I/O instead, which lets one 
+ * server handle many more clients. {@link ServerMode#VIRTUAL_THREAD_PER_CLIENT}
+ * keeps a thread per client, but uses virtual threads when the JVM has them.
  * @author Jonathon
  */
 public class Server {
@@ -48,13 +55,21 @@ public class Server {
      */
     private boolean runningServer = false;
     /**
-     * The socket for this server.
+     * How the server handles its clients.
+     */
+    private final ServerMode mode;
+    /**
+     * The socket for this server, if it uses a thread per client.
      */
     private final ServerSocket serverSocket;
+    /**
+     * Serves the clients, if the server uses a selector.
+     */
+    private final SelectorLoop selectorLoop;
     /**
      * The message handler for this server; it handles input from the connected clients.
      */
-    private final ServerMessageHandler messageHandler;
+    private final ServerBinaryMessageHandler messageHandler;
     
     /**
      * Creates a new server at the specified port.
@@ -64,8 +79,77 @@ public class Server {
      * server.
      */
     public Server(int port, ServerMessageHandler messageHandler) throws IOException {
-        serverSocket = new ServerSocket(port);
+        this(port, new StringMessageAdapter(messageHandler));
+    }
+    
+    /**
+     * Creates a new server at the specified port that handles binary 
+     * messages.
+     * @param port the port to create the server
+     * @param messageHandler the message handler that the server should use.
+     * @throws IOException thrown if something goes wrong while making the
+     * server.
+     */
+    public Server(int port, ServerBinaryMessageHandler messageHandler) throws IOException {
+        this(port, messageHandler, ServerMode.THREAD_PER_CLIENT);
+    }
+    
+    /**
+     * Creates a new server at the specified port that handles its clients
+     * in the given way.
+     * @param port the port to create the server
+     * @param messageHandler the message handler that the server should use.
+     * @param mode how the server handles its clients.
+     * @throws IOException thrown if something goes wrong while making the
+     * server.
+     */
+    public Server(int port, ServerMessageHandler messageHandler, ServerMode mode) throws IOException {
+        this(port, new StringMessageAdapter(messageHandler), mode);
+    }
+    
+    /**
+     * Creates a new server at the specified port that handles binary 
+     * messages and handles its clients in the given way.
+     * @param port the port to create the server
+     * @param messageHandler the message handler that the server should use.
+     * @param mode how the server handles its clients.
+     * @throws IOException thrown if something goes wrong while making the
+     * server.
+     */
+    public Server(int port, ServerBinaryMessageHandler messageHandler, ServerMode mode) throws IOException {
+        if (mode == ServerMode.VIRTUAL_THREAD_PER_CLIENT && !VirtualThreads.isSupported()) {
+            ErrorLogger.println("Virtual threads are not supported by this JVM: "
+                    + "using a platform thread per client instead");
+            mode = ServerMode.THREAD_PER_CLIENT;
+        }
+        this.mode = mode;
         this.messageHandler = messageHandler;
+        if (mode == ServerMode.SELECTOR) {
+            serverSocket = null;
+            selectorLoop = new SelectorLoop(this, port, messageHandler);
+        } else {
+            serverSocket = new ServerSocket(port);
+            selectorLoop = null;
+        }
+    }
+    
+    /**
+     * Checks if the JVM can run clients on virtual threads.
+     * @return <code>true</code> if {@link ServerMode#VIRTUAL_THREAD_PER_CLIENT}
+     * is supported.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreads.isSupported();
+    }
+    
+    /**
+     * Gets how the server handles its clients. This is 
+     * <code>THREAD_PER_CLIENT</code> if virtual threads were asked for but 
+     * are not supported.
+     * @return the server's mode.
+     */
+    public ServerMode getMode() {
+        return mode;
     }
     
     /**
@@ -74,14 +158,17 @@ public class Server {
      */
     public void startServer() {
         runningServer = true;
+        if (mode == ServerMode.SELECTOR) {
+            selectorLoop.run();
+            runningServer = false;
+        }
         while (runningServer) {
             try {
                 Socket socket = serverSocket.accept();
                 ClientHandler handler = new ClientHandler(this, socket, 
                         messageHandler);
-                clientHandlers.add(handler);
-                handler.start();
-                InfoLogger.println("A new client has connected to the server");
+                addHandler(handler);
+                startHandler(handler);
             } catch(IOException ioe) {
                 ErrorLogger.println("An error occured in the server: " + ioe);
                 runningServer = false;
@@ -90,19 +177,30 @@ public class Server {
         InfoLogger.println("The server has stopped listening for new clients.");
     }
     
+    /**
+     * Starts the thread that reads from a client. If a virtual thread can 
+     * not be started, a platform thread is used instead.
+     */
+    private void startHandler(ClientHandler handler) {
+        if (mode == ServerMode.VIRTUAL_THREAD_PER_CLIENT) {
+            try {
+                VirtualThreads.start(handler, handler.getName());
+                return;
+            } catch(RuntimeException e) {
+                ErrorLogger.println("Unable to start a virtual thread for " 
+                        + handler.getName() + ", using a platform thread: " + e);
+            }
+        }
+        new Thread(handler, handler.getName()).start();
+    }
+    
     /**
      * Broadcast a message to all clients except for the one who sent it.
      * @param sentMessage the one who sent the message.
      * @param message the message to broadcast.
      */
     public void broadcastMessage(ClientHandler sentMessage, String message) {
-        synchronized(clientHandlers) {
-            for (ClientHandler handler : clientHandlers) {
-                if (!handler.equals(sentMessage)) {
-                    handler.sendMessageToClient(message);
-                }
-            }
-        }
+        broadcast(sentMessage, MessageWriter.forString(message));
     }
     
     /**
@@ -110,13 +208,41 @@ public class Server {
      * @param message the message to broadcast.
      */
     public void broadcastMessage(String message) {
-        synchronized(clientHandlers) {
-            for (ClientHandler handler : clientHandlers) {
-                handler.sendMessageToClient(message);
+        broadcast(null, MessageWriter.forString(message));
+    }
+    
+    /**
+     * Broadcast a binary message to all clients except for the one who sent
+     * it. The message is only encoded once. The writer is returned to its 
+     * pool and must not be used afterwards.
+     * @param sentMessage the one who sent the message, or <code>null</code>
+     * to send it to every client.
+     * @param message the message to broadcast.
+     */
+    public void broadcast(ClientHandler sentMessage, MessageWriter message) {
+        try {
+            ByteBuffer frame = message.finish();
+            synchronized(clientHandlers) {
+                for (ClientHandler handler : clientHandlers) {
+                    if (!handler.equals(sentMessage)) {
+                        handler.sendFrame(frame);
+                    }
+                }
             }
+        } finally {
+            message.release();
         }
     }
 
+    /**
+     * Add a ClientHandler to the server's list of handlers.
+     * @param handler The handler of a client that just connected.
+     */
+    void addHandler(ClientHandler handler) {
+        clientHandlers.add(handler);
+        InfoLogger.println("A new client has connected to the server");
+    }
+
     /**
      * Remove a ClientHandler from the server's list of handlers.
      * @param handler The handler being removed from the server's list of handlers.
@@ -129,9 +255,14 @@ public class Server {
     /**
      * Closes the server so the Server doesn't accept any more clients.
      * This method is called after startServer() is called to stop
-     * the server.
+     * the server. A server using a selector also disconnects its clients,
+     * since they are served by the thread that is stopped.
      */
     public void stopServer() {
+        if (mode == ServerMode.SELECTOR) {
+            selectorLoop.stop();
+            return;
+        }
         if (runningServer) {
             try {
                 serverSocket.close();
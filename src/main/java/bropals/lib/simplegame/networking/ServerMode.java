@@ -0,0 +1,55 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.networking;
+
+/**
+ * How a {@link Server} handles its clients.
+ * @author Jonathon
+ */
+public enum ServerMode {
+    
+    /**
+     * Each client is read from on its own thread with blocking I/O. This is
+     * simple, but every client takes a thread and its stack.
+     */
+    THREAD_PER_CLIENT,
+    
+    /**
+     * Each client is read from on its own virtual thread with blocking I/O.
+     * Virtual threads are cheap, so this scales to many thousands of clients
+     * like a selector while message handlers can still block. It needs a JVM
+     * that supports virtual threads; on other JVMs the server uses 
+     * <code>THREAD_PER_CLIENT</code> instead.
+     */
+    VIRTUAL_THREAD_PER_CLIENT,
+    
+    /**
+     * Every client is read from and written to on one thread with 
+     * non-blocking I/O and a Selector. Messages are handled on that thread,
+     * so message handlers should return quickly. This scales to many
+     * thousands of clients.
+     */
+    SELECTOR
+}
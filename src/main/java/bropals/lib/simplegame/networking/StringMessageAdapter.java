@@ -0,0 +1,68 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.networking;
+
+import bropals.lib.simplegame.logger.ErrorLogger;
+
+/**
+ * Passes String messages to the String message handlers, so they can be 
+ * used with the binary protocol.
+ * @author Jonathon
+ */
+class StringMessageAdapter implements ServerBinaryMessageHandler, ClientBinaryMessageHandler {
+    
+    private final ServerMessageHandler serverHandler;
+    private final ClientMessageHandler clientHandler;
+    
+    StringMessageAdapter(ServerMessageHandler serverHandler) {
+        this.serverHandler = serverHandler;
+        this.clientHandler = null;
+    }
+    
+    StringMessageAdapter(ClientMessageHandler clientHandler) {
+        this.serverHandler = null;
+        this.clientHandler = clientHandler;
+    }
+
+    @Override
+    public void handleMessage(Server server, ClientHandler handler, MessageReader message) {
+        if (message.getMessageId() == MessageWriter.STRING_MESSAGE) {
+            serverHandler.handleMessage(server, handler, message.readString());
+        } else {
+            ErrorLogger.println("Ignoring binary message " + message.getMessageId() 
+                    + " because the server only handles String messages");
+        }
+    }
+
+    @Override
+    public void handleMessage(Client client, MessageReader message) {
+        if (message.getMessageId() == MessageWriter.STRING_MESSAGE) {
+            clientHandler.handleMessage(client, message.readString());
+        } else {
+            ErrorLogger.println("Ignoring binary message " + message.getMessageId() 
+                    + " because the client only handles String messages");
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.networking;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Starts virtual threads on JVMs that have them. They are looked up when
+ * the class is loaded, so this library can still run on older JVMs. A JVM
+ * where virtual threads are a preview feature that is not enabled has the
+ * method but can not start them, so one is started to check.
+ * @author Jonathon
+ */
+class VirtualThreads {
+    
+    private static final MethodHandle START_VIRTUAL_THREAD = findStartVirtualThread();
+    
+    private static MethodHandle findStartVirtualThread() {
+        try {
+            MethodHandle start = MethodHandles.publicLookup().findStatic(Thread.class, 
+                    "startVirtualThread", 
+                    MethodType.methodType(Thread.class, Runnable.class));
+            Runnable probe = new Runnable() {
+                @Override
+                public void run() {
+                }
+            };
+            Thread thread = (Thread)start.invokeExact(probe);
+            thread.join();
+            return start;
+        } catch(Throwable t) {
+            return null;
+        }
+    }
+    
+    private VirtualThreads() {
+    }
+    
+    /**
+     * Checks if the JVM can start virtual threads.
+     * @return <code>true</code> if virtual threads are supported.
+     */
+    static boolean isSupported() {
+        return START_VIRTUAL_THREAD != null;
+    }
+    
+    /**
+     * Starts a virtual thread.
+     * @param task what the thread runs.
+     * @param name the name of the thread.
+     * @return the thread that was started.
+     */
+    static Thread start(Runnable task, String name) {
+        if (START_VIRTUAL_THREAD == null) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+        }
+        Thread thread;
+        try {
+            thread = (Thread)START_VIRTUAL_THREAD.invokeExact(task);
+        } catch(RuntimeException | Error e) {
+            throw e;
+        } catch(Throwable t) {
+            throw new IllegalStateException("Unable to start a virtual thread", t);
+        }
+        thread.setName(name);
+        return thread;
+    }
+}
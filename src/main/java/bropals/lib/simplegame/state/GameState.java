@@ -28,10 +28,13 @@ import bropals.lib.simplegame.GameWindow;
 import bropals.lib.simplegame.KeyListener;
 import bropals.lib.simplegame.MouseListener;
 import bropals.lib.simplegame.controls.Controller;
+import bropals.lib.simplegame.io.AssetHandle;
 import bropals.lib.simplegame.io.AssetManager;
 import bropals.lib.simplegame.sound.SoundEffect;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -135,6 +138,19 @@ public abstract class GameState implements MouseListener, KeyListener {
         this.runner = runner;
     }
     
+    /**
+     * Gets the assets this game state needs. The GameStateRunner can load
+     * them in the background before this state is set. This is called
+     * after the AssetManager is given to this state, so the handles can be
+     * made with <code>getAssetManager().handle(...)</code>.
+     * <p>
+     * By default a game state declares no assets.
+     * @return the handles of the assets this game state needs.
+     */
+    public Collection<AssetHandle<?>> getRequiredAssets() {
+        return Collections.emptyList();
+    }
+    
     /**
      * Update this game state.
      * @param millis The milliseconds that passed during the update cycle.
@@ -0,0 +1,204 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Jonathon Prehn and Kevin Prehn
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package bropals.lib.simplegame.util;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+
+/**
+ * Caches something that is expensive to draw but rarely changes, so that
+ * drawing it every frame is a single <code>drawImage</code> call.
+ * <p>
+ * Implement <code>paintLayer</code> to draw the contents of the layer. The
+ * contents are painted into an offscreen image the first time the layer is
+ * rendered, and only painted again after <code>invalidate</code> is called,
+ * the size of the layer changes, or the offscreen image loses its contents.
+ * <p>
+ * A VolatileImage is used when the graphics device supports one, so the
+ * cached layer can stay in video memory. Otherwise a BufferedImage that
+ * is compatible with the device is used.
+ *
+ * @author Jonathon
+ */
+public abstract class StaticLayer {
+    
+    private int width, height;
+    private boolean valid = false;
+    private boolean volatileEnabled = true;
+    private VolatileImage volatileImage = null;
+    private BufferedImage bufferedImage = null;
+    
+    /**
+     * Makes a static layer of the given size.
+     * @param width the width of the layer.
+     * @param height the height of the layer.
+     */
+    public StaticLayer(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+    
+    /**
+     * Draws the contents of the layer. The graphics object is cleared
+     * to be fully transparent before this is called, and its origin is
+     * the top left of the layer.
+     * @param g the graphics object to draw the layer with.
+     */
+    protected abstract void paintLayer(Graphics2D g);
+    
+    /**
+     * Marks the cached contents as out of date, so they are painted again
+     * the next time the layer is rendered.
+     */
+    public void invalidate() {
+        valid = false;
+    }
+    
+    /**
+     * Changes the size of the layer. If the size is different then the
+     * cached image is thrown away.
+     * @param width the new width of the layer.
+     * @param height the new height of the layer.
+     */
+    public void setSize(int width, int height) {
+        if (this.width != width || this.height != height) {
+            this.width = width;
+            this.height = height;
+            flush();
+        }
+    }
+    
+    /**
+     * Sets whether or not the layer may be cached in a VolatileImage. When
+     * disabled a compatible BufferedImage is always used.
+     * @param volatileEnabled whether or not to use a VolatileImage.
+     */
+    public void setVolatileEnabled(boolean volatileEnabled) {
+        if (this.volatileEnabled != volatileEnabled) {
+            this.volatileEnabled = volatileEnabled;
+            flush();
+        }
+    }
+    
+    /**
+     * Draws the cached layer, painting it first if needed.
+     * @param g the graphics object to draw the layer to.
+     * @param x the x position to draw the layer at.
+     * @param y the y position to draw the layer at.
+     */
+    public void render(Graphics2D g, int x, int y) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        GraphicsConfiguration gc = g.getDeviceConfiguration();
+        if (volatileEnabled) {
+            do {
+                if (volatileImage == null) {
+                    volatileImage = gc.createCompatibleVolatileImage(width, 
+                            height, Transparency.TRANSLUCENT);
+                    valid = false;
+                    if (volatileImage == null) {
+                        volatileEnabled = false;
+                        break;
+                    }
+                }
+                int status = volatileImage.validate(gc);
+                if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                    volatileImage.flush();
+                    volatileImage = gc.createCompatibleVolatileImage(width, 
+                            height, Transparency.TRANSLUCENT);
+                    valid = false;
+                } else if (status == VolatileImage.IMAGE_RESTORED) {
+                    valid = false;
+                }
+                if (!valid) {
+                    repaint(volatileImage.createGraphics());
+                }
+                g.drawImage(volatileImage, x, y, null);
+            } while (volatileImage.contentsLost());
+            if (volatileEnabled) {
+                return;
+            }
+        }
+        if (bufferedImage == null) {
+            bufferedImage = gc.createCompatibleImage(width, height, 
+                    Transparency.TRANSLUCENT);
+            valid = false;
+        }
+        if (!valid) {
+            repaint(bufferedImage.createGraphics());
+        }
+        g.drawImage(bufferedImage, x, y, null);
+    }
+    
+    /**
+     * Clears the given graphics object and paints the layer with it.
+     * @param g the graphics object of the cached image.
+     */
+    private void repaint(Graphics2D g) {
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, width, height);
+        g.setComposite(AlphaComposite.SrcOver);
+        paintLayer(g);
+        g.dispose();
+        valid = true;
+    }
+    
+    /**
+     * Releases the cached image. It is created again the next time the
+     * layer is rendered.
+     */
+    public void flush() {
+        if (volatileImage != null) {
+            volatileImage.flush();
+            volatileImage = null;
+        }
+        if (bufferedImage != null) {
+            bufferedImage.flush();
+            bufferedImage = null;
+        }
+        valid = false;
+    }
+
+    /**
+     * Gets the width of the layer.
+     * @return the width of the layer.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the height of the layer.
+     * @return the height of the layer.
+     */
+    public int getHeight() {
+        return height;
+    }
+}